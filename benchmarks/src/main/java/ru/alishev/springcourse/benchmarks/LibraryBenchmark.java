@@ -0,0 +1,68 @@
+package ru.alishev.springcourse.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.alishev.springcourse.models.Book;
+import ru.alishev.springcourse.models.Person;
+import ru.alishev.springcourse.util.BookCursor;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарки BookService и PeopleService поверх настоящего JPA-стека (см. LibraryState).
+ * Результаты в JSON: java -jar benchmarks.jar -rf json -rff benchmarks.json
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LibraryBenchmark {
+
+    @Benchmark
+    public List<Book> findAll(LibraryState state) {
+        return state.bookService.findAll(false);
+    }
+
+    @Benchmark
+    public List<Book> findAllSortedByYear(LibraryState state) {
+        return state.bookService.findAll(true);
+    }
+
+    // OFFSET-пагинация на середине каталога
+    @Benchmark
+    public List<Book> findWithPaginationMiddle(LibraryState state) {
+        return state.bookService.findWithPagination(state.books / 20 / 2, 20, true);
+    }
+
+    // keyset-пагинация с той же глубины
+    @Benchmark
+    public List<Book> findAfterMiddle(LibraryState state) {
+        return state.bookService.findAfter(new BookCursor(1800 + 110, 0), 20, true).getContent();
+    }
+
+    @Benchmark
+    public List<Book> searchByTitle(LibraryState state) {
+        return state.bookService.searchByTitle("мастер марг");
+    }
+
+    @Benchmark
+    public void assignAndRelease(LibraryState state, Blackhole blackhole) {
+        Person person = new Person();
+        person.setPersonId(state.personIds[0]);
+        blackhole.consume(state.bookService.assign(state.freeBookId, person));
+        blackhole.consume(state.bookService.release(state.freeBookId));
+    }
+
+    @Benchmark
+    public Person findWithBooks(LibraryState state) {
+        return state.peopleService.findWithBooks(state.busiestPersonId);
+    }
+}
@@ -0,0 +1,140 @@
+package ru.alishev.springcourse.benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import ru.alishev.springcourse.config.SpringConfig;
+import ru.alishev.springcourse.services.BookService;
+import ru.alishev.springcourse.services.PeopleService;
+import ru.alishev.springcourse.util.BookSearchIndex;
+import ru.alishev.springcourse.util.PersonNameFilter;
+import ru.alishev.springcourse.util.RequestExecutor;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Настоящий стек SpringConfig (JPA, пул, кэш) на встроенной H2,
+ * заполненный books книгами и people читателями.
+ * Настройки подключения переопределяются системными свойствами:
+ * они приоритетнее hibernate.properties и для Spring, и для Hibernate.
+ */
+@State(Scope.Benchmark)
+public class LibraryState {
+
+    private static final String[] WORDS = {
+            "война", "мир", "преступление", "наказание", "идиот", "мастер", "маргарита", "отцы", "дети",
+            "мертвые", "души", "герой", "нашего", "времени", "тихий", "дон", "белая", "гвардия"};
+
+    @Param({"10000"})
+    public int books;
+
+    @Param({"1000"})
+    public int people;
+
+    // доля выданных книг
+    @Param({"0.3"})
+    public double loaned;
+
+    AnnotationConfigWebApplicationContext context;
+    BookService bookService;
+    PeopleService peopleService;
+    RequestExecutor requestExecutor;
+
+    int[] personIds;
+    int freeBookId;
+    // первые свободные книги (см. LoanContentionBenchmark)
+    int[] freeBookIds;
+    int busiestPersonId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        System.setProperty("library.datasource.driver_class", "org.h2.Driver");
+        System.setProperty("library.datasource.url", "jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1;MODE=PostgreSQL");
+        System.setProperty("library.datasource.username", "sa");
+        System.setProperty("library.datasource.password", "");
+        System.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        System.setProperty("hibernate.show_sql", "false");
+        System.setProperty("hibernate.hbm2ddl.auto", "create");
+        // схему создает hbm2ddl: миграции написаны для PostgreSQL
+        System.setProperty("library.schema.migrate", "false");
+        System.setProperty("library.request_executor", requestExecutor());
+        // таблица истории выдачи - не сущность, hbm2ddl создает ее из миграции
+        System.setProperty("hibernate.hbm2ddl.import_files", "/db/migration/V3__loan_event.sql,/db/migration/V5__loan_event_book_version.sql");
+        System.setProperty("hibernate.hbm2ddl.import_files_sql_extractor",
+                "org.hibernate.tool.hbm2ddl.MultipleLinesSqlCommandExtractor");
+
+        context = new AnnotationConfigWebApplicationContext();
+        context.setServletContext(new MockServletContext());
+        context.register(SpringConfig.class);
+        context.refresh();
+
+        bookService = context.getBean(BookService.class);
+        peopleService = context.getBean(PeopleService.class);
+        requestExecutor = context.getBean(RequestExecutor.class);
+
+        seed(context.getBean(JdbcTemplate.class));
+
+        // индексы в памяти строятся при старте контекста, а данные залиты после
+        context.getBean(BookSearchIndex.class).rebuild();
+        context.getBean(PersonNameFilter.class).load();
+    }
+
+    private void seed(JdbcTemplate jdbcTemplate) {
+        Random random = new Random(42);
+
+        List<Object[]> personRows = new ArrayList<>(people);
+        for (int i = 0; i < people; i++)
+            personRows.add(new Object[]{"Читатель " + i, 1950 + random.nextInt(60)});
+        jdbcTemplate.batchUpdate("INSERT INTO person(full_name, year_of_birth) VALUES (?, ?)", personRows);
+        personIds = jdbcTemplate.queryForList("SELECT person_id FROM person ORDER BY person_id", Integer.class)
+                .stream().mapToInt(Integer::intValue).toArray();
+
+        long now = System.currentTimeMillis();
+        List<Object[]> bookRows = new ArrayList<>(1000);
+        for (int i = 0; i < books; i++) {
+            String title = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + i;
+            Integer owner = null;
+            Timestamp taken = null;
+            // первые книги оставляем свободными для бенчмарка выдачи
+            if (i > 0 && random.nextDouble() < loaned) {
+                // квадрат смещает выдачи к первым читателям: у них сотни книг
+                owner = personIds[(int) (Math.pow(random.nextDouble(), 2) * personIds.length)];
+                taken = new Timestamp(now - TimeUnit.DAYS.toMillis(random.nextInt(30)));
+            }
+            bookRows.add(new Object[]{title, "Автор " + random.nextInt(1000), 1800 + random.nextInt(220), owner, taken});
+
+            if (bookRows.size() == 1000 || i == books - 1) {
+                jdbcTemplate.batchUpdate("INSERT INTO book(title, author, year, person_id, date_take_book, version) " +
+                        "VALUES (?, ?, ?, ?, ?, 0)", bookRows);
+                bookRows.clear();
+            }
+        }
+
+        freeBookId = jdbcTemplate.queryForObject("SELECT min(id) FROM book", Integer.class);
+        freeBookIds = jdbcTemplate.queryForList("SELECT id FROM book WHERE person_id IS NULL ORDER BY id LIMIT 64",
+                Integer.class).stream().mapToInt(Integer::intValue).toArray();
+        busiestPersonId = jdbcTemplate.queryForObject(
+                "SELECT person_id FROM book WHERE person_id IS NOT NULL " +
+                        "GROUP BY person_id ORDER BY count(*) DESC LIMIT 1", Integer.class);
+    }
+
+    // library.request_executor контекста (см. RequestExecutorBenchmark)
+    protected String requestExecutor() {
+        return "container";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+}
@@ -0,0 +1,90 @@
+package ru.alishev.springcourse.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.alishev.springcourse.models.Person;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Выдача и возврат одних и тех же книг из многих потоков одновременно:
+ * группа loans - потоки assign и release над hotBooks книгами.
+ * Кроме пропускной способности выводятся счетчики исходов (assigned, alreadyTaken, released, alreadyFree):
+ * условный UPDATE (... AND person_id IS NULL) пропускает ровно одну из одновременных выдач книги,
+ * остальные получают false, а не перезаписывают владельца.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class LoanContentionBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class HotBooks {
+
+        // 1 - все потоки спорят за одну книгу
+        @Param({"1", "8"})
+        public int hotBooks;
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Outcomes {
+
+        public long assigned;
+        public long alreadyTaken;
+        public long released;
+        public long alreadyFree;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            assigned = 0;
+            alreadyTaken = 0;
+            released = 0;
+            alreadyFree = 0;
+        }
+    }
+
+    @Benchmark
+    @Group("loans")
+    @GroupThreads(8)
+    public boolean assign(LibraryState state, HotBooks hot, Outcomes outcomes) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Person person = new Person();
+        person.setPersonId(state.personIds[random.nextInt(state.personIds.length)]);
+
+        boolean assigned = state.bookService.assign(state.freeBookIds[random.nextInt(hot.hotBooks)], person);
+        if (assigned)
+            outcomes.assigned++;
+        else
+            outcomes.alreadyTaken++;
+        return assigned;
+    }
+
+    @Benchmark
+    @Group("loans")
+    @GroupThreads(8)
+    public boolean release(LibraryState state, HotBooks hot, Outcomes outcomes) {
+        boolean released = state.bookService.release(state.freeBookIds[ThreadLocalRandom.current().nextInt(hot.hotBooks)]);
+        if (released)
+            outcomes.released++;
+        else
+            outcomes.alreadyFree++;
+        return released;
+    }
+}
@@ -0,0 +1,92 @@
+package ru.alishev.springcourse.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Timeout;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ui.ExtendedModelMap;
+import org.springframework.ui.Model;
+import ru.alishev.springcourse.models.Book;
+import ru.alishev.springcourse.models.Person;
+import ru.alishev.springcourse.services.PeopleService;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пропускная способность и хвосты задержки обработчика GET /books/{id}
+ * в режимах library.request_executor при большом числе одновременных запросов.
+ * <p>
+ * Потоки JMH играют роль клиентов: каждый отправляет запрос и ждет ответа.
+ * Обработчик идет тем же путем, что и в контроллере: RequestExecutor.submit,
+ * а Callable выполняется на getTaskExecutor(), как при асинхронной обработке Spring MVC.
+ * ioWaitMillis - блокирующее ожидание вне пула соединений (сеть, внешний сервис):
+ * H2 в памяти отвечает без сетевой задержки, на которой и сказывается разница режимов.
+ * <p>
+ * Режим virtual требует JDK 21: java -jar benchmarks.jar RequestExecutorBenchmark -rf json
+ * (на JDK ниже 21 его настройка завершается ошибкой, остальные режимы выполняются).
+ * Хвосты задержки - перцентили режима SampleTime (p0.99, p0.999).
+ * <p>
+ * В режиме virtual при малом числе CPU часть виртуальных потоков, запущенных потоками JMH,
+ * может долго не получать планировщик (на 1 CPU и JDK 21.0.1 - больше 10 минут), и итерация
+ * затягивается: после @Timeout JMH прерывает ждущие потоки и помечает результат
+ * "benchmark timed out" - такую итерацию нельзя сравнивать с остальными.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@Threads(512)
+@Timeout(time = 60)
+public class RequestExecutorBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class ExecutorState extends LibraryState {
+
+        @Param({"container", "platform", "virtual"})
+        public String mode;
+
+        @Param({"0", "5"})
+        public int ioWaitMillis;
+
+        @Override
+        protected String requestExecutor() {
+            return mode;
+        }
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public String showBook(ExecutorState state) throws Exception {
+        int id = state.freeBookId + ThreadLocalRandom.current().nextInt(state.books);
+        Model model = new ExtendedModelMap();
+
+        Object result = state.requestExecutor.submit(() -> {
+            if (state.ioWaitMillis > 0)
+                Thread.sleep(state.ioWaitMillis);
+
+            Book book = state.bookService.showWithOwner(id);
+            model.addAttribute("book", book);
+            Person bookOwner = book == null ? null : book.getOwner();
+            if (bookOwner != null)
+                model.addAttribute("owner", bookOwner);
+            else
+                model.addAttribute("people", state.peopleService.lookup(null, PeopleService.LOOKUP_LIMIT));
+            return "books/show";
+        });
+
+        if (result instanceof Callable)
+            return state.requestExecutor.getTaskExecutor().submit((Callable<String>) result).get();
+        return (String) result;
+    }
+}
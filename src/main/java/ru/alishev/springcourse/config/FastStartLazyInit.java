@@ -0,0 +1,48 @@
+package ru.alishev.springcourse.config;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+
+/**
+ * При library.fast_start=true контроллеры, сервисы и DAO создаются при первом обращении, а не при запуске.
+ * <p>
+ * Это безопасно: у них нет слушателей событий и фоновой работы, а Spring MVC находит
+ * обработчики по типу бина, не создавая его. Компоненты util (индексы, метрики, фильтр)
+ * остаются неленивыми - они загружаются или регистрируются при запуске.
+ */
+public class FastStartLazyInit implements BeanFactoryPostProcessor, EnvironmentAware {
+
+    private static final String[] LAZY_PACKAGES = {
+            "ru.alishev.springcourse.controllers.",
+            "ru.alishev.springcourse.services.",
+            "ru.alishev.springcourse.dao."
+    };
+
+    private boolean enabled;
+
+    @Override
+    public void setEnvironment(Environment environment) {
+        this.enabled = environment.getProperty(SpringConfig.FAST_START, Boolean.class, false);
+    }
+
+    @Override
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+        if (!enabled)
+            return;
+
+        for (String name : beanFactory.getBeanDefinitionNames()) {
+            BeanDefinition definition = beanFactory.getBeanDefinition(name);
+            String className = definition.getBeanClassName();
+            if (className == null || !definition.isSingleton())
+                continue;
+
+            for (String lazyPackage : LAZY_PACKAGES)
+                if (className.startsWith(lazyPackage))
+                    definition.setLazyInit(true);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package ru.alishev.springcourse.config;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import ru.alishev.springcourse.util.RequestCounters;
+import ru.alishev.springcourse.util.SqlTraceLog;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Обертка над пулом соединений, через которую идут и Hibernate, и JdbcTemplate:
+ * <ul>
+ *     <li>считает выполненные запросы к БД и прочитанные строки для текущего HTTP-запроса (см. RequestCounters);</li>
+ *     <li>замеряет каждый запрос и передает его в SqlTraceLog (для SELECT - после закрытия ResultSet,
+ *     чтобы знать число строк).</li>
+ * </ul>
+ * Соединения, запросы и ResultSet оборачиваются в java.lang.reflect.Proxy. Работу добавляют только
+ * execute*, set-методы параметров, next() и close(); остальные вызовы сразу уходят драйверу.
+ */
+public class InstrumentedDataSource extends DelegatingDataSource {
+
+    private final SqlTraceLog sqlTraceLog;
+
+    public InstrumentedDataSource(DataSource targetDataSource, SqlTraceLog sqlTraceLog) {
+        super(targetDataSource);
+        this.sqlTraceLog = sqlTraceLog;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return wrap(Connection.class, new ConnectionHandler(super.getConnection()));
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return wrap(Connection.class, new ConnectionHandler(super.getConnection(username, password)));
+    }
+
+    private static <T> T wrap(Class<T> type, Delegate handler) {
+        return type.cast(Proxy.newProxyInstance(InstrumentedDataSource.class.getClassLoader(),
+                new Class<?>[]{type}, handler));
+    }
+
+    private abstract static class Delegate implements InvocationHandler {
+        final Object target;
+
+        Delegate(Object target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "unwrap":
+                    return ((Class<?>) args[0]).isInstance(proxy) ? proxy : invokeTarget(method, args);
+                case "isWrapperFor":
+                    return ((Class<?>) args[0]).isInstance(proxy) || (Boolean) invokeTarget(method, args);
+                default:
+                    return invokeTarget(method, args);
+            }
+        }
+
+        Object invokeTarget(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+
+    private class ConnectionHandler extends Delegate {
+        ConnectionHandler(Connection target) {
+            super(target);
+        }
+
+        @Override
+        Object invokeTarget(Method method, Object[] args) throws Throwable {
+            Object result = super.invokeTarget(method, args);
+            if (result instanceof Statement) {
+                Class<?> type = method.getReturnType();
+                String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+                if (type == CallableStatement.class || type == PreparedStatement.class || type == Statement.class)
+                    return wrap(type, new StatementHandler(result, sql));
+            }
+            return result;
+        }
+    }
+
+    private class StatementHandler extends Delegate {
+        private String sql;
+        private int binds;
+
+        // выполненный SELECT, который еще читается через ResultSet
+        private ResultSetHandler openResultSet;
+        private long queryNanos;
+        private int queryBinds;
+
+        StatementHandler(Object target, String sql) {
+            super(target);
+            this.sql = sql;
+        }
+
+        @Override
+        Object invokeTarget(Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+
+            if (name.startsWith("execute")) {
+                if (args != null && args.length > 0 && args[0] instanceof String)
+                    sql = (String) args[0];
+                finishQuery();
+                RequestCounters.statementExecuted();
+
+                long start = System.nanoTime();
+                Object result = super.invokeTarget(method, args);
+                long elapsed = System.nanoTime() - start;
+
+                if (result instanceof ResultSet || Boolean.TRUE.equals(result) && name.equals("execute")) {
+                    queryNanos = elapsed;
+                    queryBinds = binds;
+                    if (result instanceof ResultSet)
+                        result = openResultSet(result);
+                } else {
+                    sqlTraceLog.record(sql, binds, elapsed, updateCount(result));
+                }
+                binds = 0;
+                return result;
+            }
+
+            if (name.equals("addBatch") && args != null && args.length == 1)
+                sql = (String) args[0];
+            if (name.startsWith("set") && method.getDeclaringClass() != Statement.class)
+                binds++;
+            if (name.equals("close"))
+                finishQuery();
+
+            Object result = super.invokeTarget(method, args);
+            return result instanceof ResultSet && !name.equals("getGeneratedKeys") ? openResultSet(result) : result;
+        }
+
+        private Object openResultSet(Object resultSet) {
+            if (openResultSet != null && openResultSet.target == resultSet)
+                return openResultSet.proxy;
+
+            finishQuery();
+            openResultSet = new ResultSetHandler(resultSet, this);
+            openResultSet.proxy = wrap(ResultSet.class, openResultSet);
+            return openResultSet.proxy;
+        }
+
+        void finishQuery() {
+            if (openResultSet != null) {
+                sqlTraceLog.record(sql, queryBinds, queryNanos, openResultSet.rows);
+                openResultSet = null;
+            }
+        }
+
+        private long updateCount(Object result) {
+            if (result instanceof Number)
+                return ((Number) result).longValue();
+            if (result instanceof int[]) {
+                long rows = 0;
+                for (int count : (int[]) result)
+                    rows += count;
+                return rows;
+            }
+            if (result instanceof long[]) {
+                long rows = 0;
+                for (long count : (long[]) result)
+                    rows += count;
+                return rows;
+            }
+            return -1;
+        }
+    }
+
+    private static class ResultSetHandler extends Delegate {
+        private final StatementHandler statement;
+        private ResultSet proxy;
+        private long rows;
+
+        ResultSetHandler(Object target, StatementHandler statement) {
+            super(target);
+            this.statement = statement;
+        }
+
+        @Override
+        Object invokeTarget(Method method, Object[] args) throws Throwable {
+            Object result = super.invokeTarget(method, args);
+            if (method.getName().equals("next") && Boolean.TRUE.equals(result)) {
+                rows++;
+                RequestCounters.rowFetched();
+            } else if (method.getName().equals("close") && statement.openResultSet == this) {
+                statement.finishQuery();
+            }
+            return result;
+        }
+    }
+}
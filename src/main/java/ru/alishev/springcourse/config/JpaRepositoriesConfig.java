@@ -0,0 +1,49 @@
+package ru.alishev.springcourse.config;
+
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.data.repository.config.BootstrapMode;
+
+/**
+ * Репозитории Spring Data JPA.
+ * <p>
+ * При library.fast_start=true они создаются отложенно (BootstrapMode.DEFERRED) и инициализируются
+ * в конце refresh, пока EntityManagerFactory строится в фоне (см. SpringConfig.entityManagerFactory).
+ * Конфигурации находит @ComponentScan - к этому моменту hibernate.properties уже прочитан.
+ */
+public class JpaRepositoriesConfig {
+
+    static boolean isFastStart(ConditionContext context) {
+        return context.getEnvironment().getProperty(SpringConfig.FAST_START, Boolean.class, false);
+    }
+
+    @Configuration
+    @Conditional(FastStart.class)
+    @EnableJpaRepositories(value = "ru.alishev.springcourse.repositories", bootstrapMode = BootstrapMode.DEFERRED)
+    static class Deferred {
+    }
+
+    @Configuration
+    @Conditional(NormalStart.class)
+    @EnableJpaRepositories("ru.alishev.springcourse.repositories")
+    static class Default {
+    }
+
+    static class FastStart implements Condition {
+        @Override
+        public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+            return isFastStart(context);
+        }
+    }
+
+    static class NormalStart implements Condition {
+        @Override
+        public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+            return !isFastStart(context);
+        }
+    }
+}
@@ -1,17 +1,26 @@
 package ru.alishev.springcourse.config;
 
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
 import org.springframework.web.filter.CharacterEncodingFilter;
+import org.springframework.web.filter.DelegatingFilterProxy;
 import org.springframework.web.filter.HiddenHttpMethodFilter;
+import org.springframework.web.servlet.FrameworkServlet;
 import org.springframework.web.servlet.support.AbstractAnnotationConfigDispatcherServletInitializer;
 
 import javax.servlet.DispatcherType;
 import javax.servlet.FilterRegistration;
+import javax.servlet.MultipartConfigElement;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
+import javax.servlet.ServletRegistration;
 import java.util.EnumSet;
 
 public class MySpringMvcDispatcherServletInitializer extends AbstractAnnotationConfigDispatcherServletInitializer {
 
+    private final StartupReport startupReport = new StartupReport();
+
     @Override
     protected Class<?>[] getRootConfigClasses() {
         return null;
@@ -27,13 +36,56 @@ public class MySpringMvcDispatcherServletInitializer extends AbstractAnnotationC
         return new String[] {"/"};
     }
 
+    /**
+     * Время запуска по фазам и бинам - в лог (см. StartupReport).
+     * Контекст сам не передает ApplicationStartup в фабрику бинов, которую создает при refresh,
+     * без этого не было бы шагов создания бинов
+     */
+    @Override
+    protected WebApplicationContext createServletApplicationContext() {
+        AnnotationConfigWebApplicationContext context = new AnnotationConfigWebApplicationContext() {
+            @Override
+            protected void customizeBeanFactory(DefaultListableBeanFactory beanFactory) {
+                super.customizeBeanFactory(beanFactory);
+                beanFactory.setApplicationStartup(getApplicationStartup());
+            }
+        };
+        context.setApplicationStartup(startupReport);
+        context.register(getServletConfigClasses());
+        return context;
+    }
+
+    /**
+     * Загруженные файлы больше 1 МБ контейнер пишет во временный каталог,
+     * поэтому импорт большого CSV не держит его целиком в памяти
+     */
+    @Override
+    protected void customizeRegistration(ServletRegistration.Dynamic registration) {
+        registration.setMultipartConfig(new MultipartConfigElement("", -1, -1, 1024 * 1024));
+    }
+
     @Override
     public void onStartup(ServletContext aServletContext) throws ServletException {
         super.onStartup(aServletContext);
+        aServletContext.addListener(startupReport);
+        registerRequestMetricsFilter(aServletContext);
         registerCharacterEncodingFilter(aServletContext);
         registerHiddenFieldFilter(aServletContext);
     }
 
+    /**
+     * Первым в цепочке, чтобы замер включал остальные фильтры.
+     * Сам фильтр - бин RequestMetricsFilter из контекста DispatcherServlet (корневого контекста нет)
+     */
+    private void registerRequestMetricsFilter(ServletContext aContext) {
+        DelegatingFilterProxy filterProxy = new DelegatingFilterProxy("requestMetricsFilter");
+        filterProxy.setContextAttribute(FrameworkServlet.SERVLET_CONTEXT_PREFIX + getServletName());
+
+        FilterRegistration.Dynamic requestMetrics = aContext.addFilter("requestMetricsFilter", filterProxy);
+        requestMetrics.setAsyncSupported(true);
+        requestMetrics.addMappingForUrlPatterns(null, false, "/*");
+    }
+
     private void registerCharacterEncodingFilter(ServletContext aContext) {
         EnumSet<DispatcherType> dispatcherTypes = EnumSet.of(DispatcherType.REQUEST, DispatcherType.FORWARD);
 
@@ -42,11 +94,15 @@ public class MySpringMvcDispatcherServletInitializer extends AbstractAnnotationC
         characterEncodingFilter.setForceEncoding(true);
 
         FilterRegistration.Dynamic characterEncoding = aContext.addFilter("characterEncoding", characterEncodingFilter);
+        // фильтры должны поддерживать асинхронные запросы (library.request_executor = platform/virtual)
+        characterEncoding.setAsyncSupported(true);
         characterEncoding.addMappingForUrlPatterns(dispatcherTypes, true, "/*");
     }
 
     private void registerHiddenFieldFilter(ServletContext aContext) {
-        aContext.addFilter("hiddenHttpMethodFilter",
-                new HiddenHttpMethodFilter()).addMappingForUrlPatterns(null ,true, "/*");
+        FilterRegistration.Dynamic hiddenHttpMethod = aContext.addFilter("hiddenHttpMethodFilter",
+                new HiddenHttpMethodFilter());
+        hiddenHttpMethod.setAsyncSupported(true);
+        hiddenHttpMethod.addMappingForUrlPatterns(null ,true, "/*");
     }
 }
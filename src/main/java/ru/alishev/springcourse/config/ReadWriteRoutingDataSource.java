@@ -0,0 +1,191 @@
+package ru.alishev.springcourse.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import ru.alishev.springcourse.util.ChangeVersions;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Разделение чтения и записи: транзакции readOnly = true идут на реплики (по кругу),
+ * остальное - на основную БД.
+ * <p>
+ * Работает только под LazyConnectionDataSourceProxy: JpaTransactionManager берет соединение
+ * до того, как отмечает транзакцию как readOnly, а прокси откладывает выбор до первого запроса.
+ * <ul>
+ *     <li>реплики проверяются раз в library.datasource.replica_check_interval мс;
+ *     пока ни одна не доступна (или соединение с репликой не получено), чтение идет на основную БД;</li>
+ *     <li>после коммита записи клиент library.datasource.read_after_write_ms мс читает с основной БД
+ *     (cookie read_primary_until), чтобы после redirect увидеть свои изменения, несмотря на отставание реплик.
+ *     Запрос берется из RequestContextHolder; в режимах platform/virtual RequestExecutor переносит его
+ *     в поток обработчика;</li>
+ *     <li>страница, чей ETag отражает изменение моложе read_after_write_ms (ChangeVersions.MODIFIED_ATTRIBUTE),
+ *     тоже читается с основной БД - у любого клиента, не только у того, кто записал.</li>
+ * </ul>
+ * Кэш второго уровня общий: данные, прочитанные с отстающей реплики, могут попасть в кэш запросов,
+ * поэтому отставание реплик должно быть много меньше TTL регионов (ehcache.xml).
+ */
+public class ReadWriteRoutingDataSource extends AbstractDataSource implements DisposableBean {
+
+    static final String PIN_COOKIE = "read_primary_until";
+
+    private final HikariDataSource primary;
+    private final List<HikariDataSource> replicas;
+    // 1 - реплика отвечает на проверку
+    private final AtomicIntegerArray healthy;
+    private final AtomicInteger next = new AtomicInteger();
+    private final long readAfterWriteMillis;
+    private final ScheduledExecutorService healthCheck;
+
+    public ReadWriteRoutingDataSource(HikariDataSource primary, List<HikariDataSource> replicas,
+                                      long checkIntervalMillis, long readAfterWriteMillis) {
+        this.primary = primary;
+        this.replicas = replicas;
+        this.healthy = new AtomicIntegerArray(replicas.size());
+        this.readAfterWriteMillis = readAfterWriteMillis;
+
+        if (replicas.isEmpty()) {
+            this.healthCheck = null;
+        } else {
+            this.healthCheck = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "replica-health-check");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.healthCheck.scheduleWithFixedDelay(this::checkReplicas, 0, checkIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public boolean hasReplicas() {
+        return !replicas.isEmpty();
+    }
+
+    public int getHealthyReplicas() {
+        int count = 0;
+        for (int i = 0; i < healthy.length(); i++)
+            count += healthy.get(i);
+        return count;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            if (readAfterWriteMillis > 0 && TransactionSynchronizationManager.isActualTransactionActive())
+                pinAfterCommit();
+            return primary.getConnection();
+        }
+
+        if (hasReplicas() && !isPinnedToPrimary()) {
+            int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+            for (int i = 0; i < replicas.size(); i++) {
+                int replica = (start + i) % replicas.size();
+                if (healthy.get(replica) == 0)
+                    continue;
+                try {
+                    return replicas.get(replica).getConnection();
+                } catch (SQLException e) {
+                    // до следующей проверки реплика не используется
+                    healthy.set(replica, 0);
+                }
+            }
+        }
+        return primary.getConnection();
+    }
+
+    // учетные данные заданы в пулах, как и у самого HikariDataSource
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    private void checkReplicas() {
+        for (int i = 0; i < replicas.size(); i++) {
+            boolean valid;
+            try (Connection connection = replicas.get(i).getConnection()) {
+                valid = connection.isValid(5);
+            } catch (SQLException e) {
+                valid = false;
+            }
+            healthy.set(i, valid ? 1 : 0);
+        }
+    }
+
+    private void pinAfterCommit() {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+                if (!(attributes instanceof ServletRequestAttributes))
+                    return;
+
+                long until = System.currentTimeMillis() + readAfterWriteMillis;
+                HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+                request.setAttribute(PIN_COOKIE, until);
+
+                HttpServletResponse response = ((ServletRequestAttributes) attributes).getResponse();
+                if (response != null && !response.isCommitted()) {
+                    Cookie cookie = new Cookie(PIN_COOKIE, Long.toString(until));
+                    cookie.setPath("/");
+                    cookie.setHttpOnly(true);
+                    cookie.setMaxAge((int) TimeUnit.MILLISECONDS.toSeconds(readAfterWriteMillis + 999));
+                    response.addCookie(cookie);
+                }
+            }
+        });
+    }
+
+    private boolean isPinnedToPrimary() {
+        if (readAfterWriteMillis <= 0)
+            return false;
+
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (!(attributes instanceof ServletRequestAttributes))
+            return false;
+        HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+
+        Object modified = request.getAttribute(ChangeVersions.MODIFIED_ATTRIBUTE);
+        if (modified instanceof Long && (Long) modified + readAfterWriteMillis > System.currentTimeMillis())
+            return true;
+
+        Object until = request.getAttribute(PIN_COOKIE);
+        if (until instanceof Long)
+            return (Long) until > System.currentTimeMillis();
+
+        Cookie[] cookies = request.getCookies();
+        if (cookies != null)
+            for (Cookie cookie : cookies)
+                if (PIN_COOKIE.equals(cookie.getName())) {
+                    try {
+                        return Long.parseLong(cookie.getValue()) > System.currentTimeMillis();
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+        return false;
+    }
+
+    @Override
+    public void destroy() {
+        if (healthCheck != null)
+            healthCheck.shutdownNow();
+        for (HikariDataSource replica : replicas)
+            replica.close();
+    }
+}
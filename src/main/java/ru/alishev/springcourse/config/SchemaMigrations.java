@@ -0,0 +1,47 @@
+package ru.alishev.springcourse.config;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.output.MigrateResult;
+import org.springframework.beans.factory.InitializingBean;
+import ru.alishev.springcourse.util.QueryPlanCheck;
+
+import javax.sql.DataSource;
+import java.util.logging.Logger;
+
+/**
+ * Миграции схемы (Flyway, src/main/resources/db/migration) при запуске, до создания EntityManagerFactory.
+ * Существующая база без истории миграций считается версией 0 - миграции написаны с IF NOT EXISTS.
+ * После миграций планы частых запросов проверяются через EXPLAIN (см. QueryPlanCheck)
+ */
+public class SchemaMigrations implements InitializingBean {
+    private static final Logger log = Logger.getLogger(SchemaMigrations.class.getName());
+
+    private final DataSource dataSource;
+    private final boolean migrate;
+    private final boolean checkPlans;
+
+    public SchemaMigrations(DataSource dataSource, boolean migrate, boolean checkPlans) {
+        this.dataSource = dataSource;
+        this.migrate = migrate;
+        this.checkPlans = checkPlans;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (!migrate)
+            return;
+
+        MigrateResult result = Flyway.configure()
+                .dataSource(dataSource)
+                .locations("classpath:db/migration")
+                .baselineOnMigrate(true)
+                .baselineVersion("0")
+                .load()
+                .migrate();
+        log.info(String.format("Схема БД: версия %s, применено миграций: %d",
+                result.targetSchemaVersion, result.migrationsExecuted));
+
+        if (checkPlans)
+            new QueryPlanCheck(dataSource).run();
+    }
+}
@@ -1,27 +1,50 @@
 package ru.alishev.springcourse.config;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.validator.messageinterpolation.ParameterMessageInterpolator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.annotation.Primary;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.core.env.Environment;
-import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.core.metrics.ApplicationStartup;
+import org.springframework.core.metrics.StartupStep;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
 import org.springframework.orm.jpa.JpaTransactionManager;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
 import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
+import org.springframework.validation.Validator;
+import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
+import org.springframework.web.multipart.MultipartResolver;
+import org.springframework.web.multipart.support.StandardServletMultipartResolver;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.ViewResolverRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 import org.thymeleaf.spring5.SpringTemplateEngine;
 import org.thymeleaf.spring5.templateresolver.SpringResourceTemplateResolver;
 import org.thymeleaf.spring5.view.ThymeleafViewResolver;
+import ru.alishev.springcourse.util.Bulkhead;
+import ru.alishev.springcourse.util.ConnectionPoolMetrics;
+import ru.alishev.springcourse.util.RequestExecutor;
+import ru.alishev.springcourse.util.SqlTraceLog;
 
 import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 @Configuration
@@ -29,8 +52,13 @@ import java.util.Properties;
 @PropertySource("classpath:hibernate.properties")
 @EnableWebMvc
 @EnableTransactionManagement
-@EnableJpaRepositories("ru.alishev.springcourse.repositories")
 public class SpringConfig implements WebMvcConfigurer {
+    /**
+     * Быстрый запуск: EntityManagerFactory строится в фоне, репозитории - отложенно (JpaRepositoriesConfig),
+     * контроллеры и сервисы - при первом обращении (FastStartLazyInit), загрузка индексов - в фоне (StartupTasks)
+     */
+    public static final String FAST_START = "library.fast_start";
+
     private final ApplicationContext applicationContext;
     private final Environment environment;
 
@@ -40,6 +68,15 @@ public class SpringConfig implements WebMvcConfigurer {
         this.environment = environment;
     }
 
+    @Bean
+    public static FastStartLazyInit fastStartLazyInit() {
+        return new FastStartLazyInit();
+    }
+
+    private boolean isFastStart() {
+        return environment.getProperty(FAST_START, Boolean.class, false);
+    }
+
     @Bean
     public SpringResourceTemplateResolver templateResolver() {
         SpringResourceTemplateResolver templateResolver = new SpringResourceTemplateResolver();
@@ -58,6 +95,37 @@ public class SpringConfig implements WebMvcConfigurer {
         return templateEngine;
     }
 
+    @Bean
+    public RequestExecutor requestExecutor() {
+        RequestExecutor.Mode mode = RequestExecutor.Mode.valueOf(
+                environment.getProperty("library.request_executor", "container").toUpperCase());
+
+        // library.bulkhead.list, library.bulkhead.search, ... - см. Bulkhead.Kind
+        Map<Bulkhead.Kind, Integer> bulkheadLimits = new EnumMap<>(Bulkhead.Kind.class);
+        for (Bulkhead.Kind kind : Bulkhead.Kind.values())
+            bulkheadLimits.put(kind,
+                    environment.getProperty("library.bulkhead." + kind.name().toLowerCase(), Integer.class, 4));
+
+        return new RequestExecutor(mode,
+                environment.getProperty("library.request_executor.platform_threads", Integer.class, 200),
+                bulkheadLimits,
+                environment.getProperty("library.bulkhead.max_wait_ms", Long.class, 0L),
+                environment.getProperty("library.bulkhead.retry_after_seconds", Long.class, 1L),
+                environment.getProperty("library.max_page_size", Integer.class, 100));
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        if (requestExecutor().isAsync())
+            configurer.setTaskExecutor(requestExecutor().getTaskExecutor());
+        configurer.setDefaultTimeout(environment.getProperty("library.request_executor.timeout", Long.class, 30000L));
+    }
+
+    @Override
+    public void addResourceHandlers(ResourceHandlerRegistry registry) {
+        registry.addResourceHandler("/resources/**").addResourceLocations("/resources/");
+    }
+
     @Override
     public void configureViewResolvers(ViewResolverRegistry registry) {
         ThymeleafViewResolver resolver = new ThymeleafViewResolver();
@@ -67,27 +135,183 @@ public class SpringConfig implements WebMvcConfigurer {
         registry.viewResolver(resolver);
     }
 
+    /**
+     * Один Bean Validation на приложение: им проверяются формы (@Valid) и строки импорта CSV,
+     * контекст закрывает его ValidatorFactory при остановке
+     */
     @Bean
+    @Primary
+    public LocalValidatorFactoryBean validator() {
+        LocalValidatorFactoryBean validator = new LocalValidatorFactoryBean();
+        // сообщения ограничений Book и Person не используют EL, поэтому интерполятор без javax.el
+        validator.setMessageInterpolator(new ParameterMessageInterpolator());
+        return validator;
+    }
+
+    @Override
+    public Validator getValidator() {
+        return validator();
+    }
+
+    @Bean
+    public ConnectionPoolMetrics connectionPoolMetrics() {
+        return new ConnectionPoolMetrics();
+    }
+
+    /**
+     * Пул соединений HikariCP вместо DriverManagerDataSource,
+     * который открывал новое соединение с PostgreSQL на каждую транзакцию.
+     * Настройки пула берутся из hibernate.properties (ключи hibernate.hikari.*), подключение - из library.datasource.*:
+     * с ключами hibernate.connection.* Hibernate собирал бы свою конфигурацию подключения и просил бы у пула
+     * getConnection(user, password), который HikariCP не поддерживает
+     */
+    @Bean(destroyMethod = "close")
+    public HikariDataSource pooledDataSource() {
+        HikariConfig config = poolConfig(environment.getRequiredProperty("library.datasource.url"),
+                environment.getProperty("hibernate.hikari.poolName", "project1-pool"));
+
+        // active/idle/pending доступны через JMX (com.zaxxer.hikari:type=Pool) и ConnectionPoolMetrics
+        config.setRegisterMbeans(true);
+        config.setMetricsTrackerFactory(connectionPoolMetrics());
+
+        return new HikariDataSource(config);
+    }
+
+    /**
+     * Реплики для чтения (library.datasource.replica_urls через запятую, с теми же учетными данными).
+     * Без реплик все соединения берутся из основного пула
+     */
+    @Bean
+    public ReadWriteRoutingDataSource routingDataSource() {
+        List<HikariDataSource> replicas = new ArrayList<>();
+        String[] urls = environment.getProperty("library.datasource.replica_urls", "").split(",");
+        for (int i = 0; i < urls.length; i++) {
+            if (urls[i].trim().isEmpty())
+                continue;
+
+            HikariConfig config = poolConfig(urls[i].trim(),
+                    environment.getProperty("hibernate.hikari.poolName", "project1-pool") + "-replica-" + i);
+            // недоступная при запуске реплика не мешает старту, ее подключит проверка
+            config.setInitializationFailTimeout(-1);
+            // при упавшей реплике чтение быстро уходит на основную БД
+            config.setConnectionTimeout(
+                    environment.getProperty("library.datasource.replica_connection_timeout", Long.class, 2000L));
+            replicas.add(new HikariDataSource(config));
+        }
+
+        return new ReadWriteRoutingDataSource(pooledDataSource(), replicas,
+                environment.getProperty("library.datasource.replica_check_interval", Long.class, 5000L),
+                environment.getProperty("library.datasource.read_after_write_ms", Long.class, 0L));
+    }
+
+    private HikariConfig poolConfig(String jdbcUrl, String poolName) {
+        HikariConfig config = new HikariConfig();
+
+        config.setDriverClassName(environment.getRequiredProperty("library.datasource.driver_class"));
+        config.setJdbcUrl(jdbcUrl);
+        config.setUsername(environment.getRequiredProperty("library.datasource.username"));
+        config.setPassword(environment.getRequiredProperty("library.datasource.password"));
+
+        config.setPoolName(poolName);
+        config.setMinimumIdle(environment.getProperty("hibernate.hikari.minimumIdle", Integer.class, 2));
+        config.setMaximumPoolSize(environment.getProperty("hibernate.hikari.maximumPoolSize", Integer.class, 10));
+        // простаивающие соединения сверх minimumIdle закрываются через idleTimeout
+        config.setIdleTimeout(environment.getProperty("hibernate.hikari.idleTimeout", Long.class, 600000L));
+        config.setMaxLifetime(environment.getProperty("hibernate.hikari.maxLifetime", Long.class, 1800000L));
+        config.setConnectionTimeout(environment.getProperty("hibernate.hikari.connectionTimeout", Long.class, 30000L));
+        // соединение, не возвращенное в пул дольше порога, логируется как утечка (0 - выключено)
+        config.setLeakDetectionThreshold(
+                environment.getProperty("hibernate.hikari.leakDetectionThreshold", Long.class, 60000L));
+
+        // кэш prepared statements на стороне драйвера PostgreSQL (на каждое соединение)
+        if (config.getJdbcUrl().startsWith("jdbc:postgresql:")) {
+            config.addDataSourceProperty("prepareThreshold",
+                    environment.getProperty("hibernate.hikari.prepareThreshold", "5"));
+            config.addDataSourceProperty("preparedStatementCacheQueries",
+                    environment.getProperty("hibernate.hikari.preparedStatementCacheQueries", "256"));
+            config.addDataSourceProperty("preparedStatementCacheSizeMiB",
+                    environment.getProperty("hibernate.hikari.preparedStatementCacheSizeMiB", "5"));
+            // batch без запроса сгенерированных ключей (история выдачи, LoanEventDAO) драйвер отправляет
+            // многострочными INSERT; импорт книг (BookDAO) ждет id и строит многострочный INSERT сам
+            config.addDataSourceProperty("reWriteBatchedInserts",
+                    environment.getProperty("hibernate.hikari.reWriteBatchedInserts", "true"));
+        }
+
+        return config;
+    }
+
+    @Bean
+    public SqlTraceLog sqlTraceLog() {
+        return new SqlTraceLog(
+                environment.getProperty("library.sql_log.sample_rate", Double.class, 0.0),
+                environment.getProperty("library.sql_log.slow_threshold_ms", Long.class, 500L),
+                environment.getProperty("library.sql_log.queue_capacity", Integer.class, 10000));
+    }
+
+    /**
+     * Пул, обернутый для подсчета запросов к БД и прочитанных строк на каждый HTTP-запрос (см. RequestMetrics)
+     * и для лога SQL (см. SqlTraceLog). С репликами выбор БД откладывается до первого запроса
+     * (см. ReadWriteRoutingDataSource)
+     */
+    @Bean
+    @Primary
     public DataSource dataSource() {
-        DriverManagerDataSource dataSource = new DriverManagerDataSource();
+        DataSource target = routingDataSource().hasReplicas()
+                ? new LazyConnectionDataSourceProxy(routingDataSource())
+                : pooledDataSource();
+        return new InstrumentedDataSource(target, sqlTraceLog());
+    }
 
-        dataSource.setDriverClassName(environment.getRequiredProperty("hibernate.driver_class"));
-        dataSource.setUrl(environment.getRequiredProperty("hibernate.connection.url"));
-        dataSource.setUsername(environment.getRequiredProperty("hibernate.connection.username"));
-        dataSource.setPassword(environment.getRequiredProperty("hibernate.connection.password"));
+    /**
+     * Миграции схемы из db/migration (library.schema.migrate) и проверка планов частых запросов
+     * (library.schema.check_plans). Выполняются через основной пул, до создания EntityManagerFactory
+     */
+    @Bean
+    public SchemaMigrations schemaMigrations() {
+        return new SchemaMigrations(pooledDataSource(),
+                environment.getProperty("library.schema.migrate", Boolean.class, true),
+                environment.getProperty("library.schema.check_plans", Boolean.class, true));
+    }
 
-        return dataSource;
+    @Bean
+    public JdbcTemplate jdbcTemplate() {
+        return new JdbcTemplate(dataSource());
+    }
+
+    // загрузка файлов (импорт CSV); сами файлы буферизуются контейнером на диске
+    @Bean
+    public MultipartResolver multipartResolver() {
+        return new StandardServletMultipartResolver();
     }
 
     private Properties hibernateProperties() {
         Properties properties = new Properties();
         properties.put("hibernate.dialect", environment.getRequiredProperty("hibernate.dialect"));
-        properties.put("hibernate.show_sql", environment.getRequiredProperty("hibernate.show_sql"));
+        // синхронный вывод каждого запроса в System.out; в production вместо него - SqlTraceLog
+        properties.put("hibernate.show_sql", environment.getProperty("hibernate.show_sql", "false"));
+
+        // второй уровень кэша и кэш запросов (Ehcache через JCache), настройки регионов - в ehcache.xml
+        boolean secondLevelCache = environment.getProperty("hibernate.cache.use_second_level_cache", Boolean.class, false);
+        boolean queryCache = environment.getProperty("hibernate.cache.use_query_cache", Boolean.class, false);
+        properties.put("hibernate.cache.use_second_level_cache", String.valueOf(secondLevelCache));
+        properties.put("hibernate.cache.use_query_cache", String.valueOf(queryCache));
+        properties.put("hibernate.cache.region.factory_class", "jcache");
+        properties.put("hibernate.javax.cache.provider", "org.ehcache.jsr107.EhcacheCachingProvider");
+        properties.put("hibernate.javax.cache.uri", "ehcache.xml");
+        // статистика нужна только для счетчиков кэша: без кэша это лишняя работа в каждой сессии
+        properties.put("hibernate.generate_statistics", String.valueOf((secondLevelCache || queryCache)
+                && environment.getProperty("hibernate.generate_statistics", Boolean.class, false)));
+        // и не для построчного лога метрик каждой сессии
+        properties.put("hibernate.session.events.log", "false");
+        // диалект задан явно - при быстром запуске Hibernate не читает метаданные JDBC у БД
+        if (isFastStart())
+            properties.put("hibernate.temp.use_jdbc_metadata_defaults", "false");
 
         return properties;
     }
 
     @Bean
+    @DependsOn("schemaMigrations")
     public LocalContainerEntityManagerFactoryBean entityManagerFactory() {
         final LocalContainerEntityManagerFactoryBean em = new LocalContainerEntityManagerFactoryBean();
         em.setDataSource(dataSource());
@@ -97,6 +321,25 @@ public class SpringConfig implements WebMvcConfigurer {
         em.setJpaVendorAdapter(vendorAdapter);
         em.setJpaProperties(hibernateProperties());
 
+        if (isFastStart()) {
+            // EntityManagerFactory строится в фоне, пока создаются остальные бины;
+            // первое обращение к ней ждет окончания сборки
+            ApplicationStartup startup = ((ConfigurableApplicationContext) applicationContext).getApplicationStartup();
+            em.setBootstrapExecutor(new SimpleAsyncTaskExecutor("jpa-bootstrap-") {
+                @Override
+                protected void doExecute(Runnable task) {
+                    super.doExecute(() -> {
+                        StartupStep step = startup.start("library.jpa.bootstrap");
+                        try {
+                            task.run();
+                        } finally {
+                            step.end();
+                        }
+                    });
+                }
+            });
+        }
+
         return em;
     }
 
@@ -0,0 +1,191 @@
+package ru.alishev.springcourse.config;
+
+import org.springframework.core.metrics.ApplicationStartup;
+import org.springframework.core.metrics.StartupStep;
+
+import javax.servlet.ServletRequestEvent;
+import javax.servlet.ServletRequestListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Отчет о времени запуска: по фазам refresh контекста, по самым долгим бинам
+ * и время до первого запроса. Шаги записывает сам Spring (ApplicationStartup),
+ * фоновые задачи запуска (library.*, см. StartupTasks) пишутся в лог по мере завершения.
+ * <p>
+ * Подключается в MySpringMvcDispatcherServletInitializer, пишет через java.util.logging (см. SqlTraceLog).
+ */
+public class StartupReport implements ApplicationStartup, ServletRequestListener {
+
+    private static final Logger log = Logger.getLogger(StartupReport.class.getName());
+
+    private static final String REFRESH = "spring.context.refresh";
+    private static final String INSTANTIATE = "spring.beans.instantiate";
+    private static final int TOP_BEANS = 15;
+
+    private final long createdNanos = System.nanoTime();
+    private final AtomicLong ids = new AtomicLong();
+    private final ThreadLocal<Step> current = new ThreadLocal<>();
+    private final AtomicBoolean firstRequest = new AtomicBoolean(true);
+
+    // завершенные шаги до конца refresh; потом не копятся
+    private List<Step> steps = new ArrayList<>();
+
+    @Override
+    public StartupStep start(String name) {
+        Step parent = current.get();
+        Step step = new Step(ids.incrementAndGet(), name, parent);
+        current.set(step);
+        return step;
+    }
+
+    @Override
+    public void requestInitialized(ServletRequestEvent event) {
+        if (firstRequest.get() && firstRequest.compareAndSet(true, false))
+            log.info(String.format("Первый запрос через %d мс после создания контекста",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - createdNanos)));
+    }
+
+    @Override
+    public void requestDestroyed(ServletRequestEvent event) {
+    }
+
+    private void ended(Step step) {
+        if (current.get() == step)
+            current.set(step.parent);
+
+        List<Step> report = null;
+        synchronized (this) {
+            if (steps != null) {
+                steps.add(step);
+                if (!step.name.equals(REFRESH))
+                    return;
+                report = steps;
+                steps = null;
+            }
+        }
+
+        if (report != null)
+            log.info(format(step, report));
+        else if (step.name.startsWith("library."))
+            log.info(String.format("%s %s: %d мс", step.name, step.tags, millis(step.nanos())));
+    }
+
+    private String format(Step refresh, List<Step> steps) {
+        Map<Long, Long> childNanos = new LinkedHashMap<>();
+        for (Step step : steps)
+            if (step.parent != null)
+                childNanos.merge(step.parent.id, step.nanos(), Long::sum);
+
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("Запуск контекста: %d мс (%d мс с создания)%n",
+                millis(refresh.nanos()), millis(refresh.endNanos - createdNanos)));
+
+        // вложенные фазы входят во время внешних
+        out.append("Фазы:\n");
+        Map<String, Long> phases = new LinkedHashMap<>();
+        for (Step step : steps)
+            if (step != refresh && !step.name.equals(INSTANTIATE) && !step.name.startsWith("library."))
+                phases.merge(step.name, step.nanos(), Long::sum);
+        phases.forEach((name, nanos) -> out.append(String.format("  %6d мс  %s%n", millis(nanos), name)));
+
+        out.append("Бины (собственное время, без зависимостей):\n");
+        List<Step> beans = new ArrayList<>();
+        for (Step step : steps)
+            if (step.name.equals(INSTANTIATE))
+                beans.add(step);
+        beans.sort(Comparator.comparingLong(
+                (Step step) -> step.nanos() - childNanos.getOrDefault(step.id, 0L)).reversed());
+        for (Step bean : beans.subList(0, Math.min(TOP_BEANS, beans.size())))
+            out.append(String.format("  %6d мс  %s%n",
+                    millis(bean.nanos() - childNanos.getOrDefault(bean.id, 0L)), bean.tags.get("beanName")));
+
+        out.append("Задачи запуска (остальные - в фоне, в лог по завершении):\n");
+        steps.stream()
+                .filter(step -> step.name.startsWith("library."))
+                .forEach(step -> out.append(String.format("  %6d мс  %s %s%n",
+                        millis(step.nanos()), step.name, step.tags)));
+        return out.toString();
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private class Step implements StartupStep {
+        final long id;
+        final String name;
+        final Step parent;
+        final long startNanos = System.nanoTime();
+        final Map<String, String> tags = new LinkedHashMap<>();
+        long endNanos;
+
+        Step(long id, String name, Step parent) {
+            this.id = id;
+            this.name = name;
+            this.parent = parent;
+        }
+
+        long nanos() {
+            return endNanos - startNanos;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long getId() {
+            return id;
+        }
+
+        @Override
+        public Long getParentId() {
+            return parent == null ? null : parent.id;
+        }
+
+        @Override
+        public StartupStep tag(String key, String value) {
+            tags.put(key, value);
+            return this;
+        }
+
+        @Override
+        public StartupStep tag(String key, Supplier<String> value) {
+            return tag(key, value.get());
+        }
+
+        @Override
+        public Tags getTags() {
+            List<Tag> list = new ArrayList<>();
+            tags.forEach((key, value) -> list.add(new Tag() {
+                @Override
+                public String getKey() {
+                    return key;
+                }
+
+                @Override
+                public String getValue() {
+                    return value;
+                }
+            }));
+            return Collections.unmodifiableList(list)::iterator;
+        }
+
+        @Override
+        public void end() {
+            endNanos = System.nanoTime();
+            ended(this);
+        }
+    }
+}
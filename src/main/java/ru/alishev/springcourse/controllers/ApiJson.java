@@ -0,0 +1,75 @@
+package ru.alishev.springcourse.controllers;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import ru.alishev.springcourse.dto.LoanRecord;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Общее для JSON API: ответ пишется потоково JsonGenerator'ом прямо в тело ответа,
+ * без промежуточного дерева объектов и без Thymeleaf
+ */
+final class ApiJson {
+
+    static final int DEFAULT_LIMIT = 50;
+    static final int MAX_LIMIT = 1000;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private ApiJson() {
+    }
+
+    static JsonGenerator open(HttpServletResponse response) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        return JSON_FACTORY.createGenerator(response.getOutputStream(), JsonEncoding.UTF8);
+    }
+
+    static int checkLimit(int limit) {
+        if (limit < 1 || limit > MAX_LIMIT)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit должен быть от 1 до " + MAX_LIMIT);
+        return limit;
+    }
+
+    /**
+     * Курсор истории выдачи - id записи, после которой продолжать; без курсора - с самых новых
+     */
+    static long loanCursor(String cursor) {
+        if (cursor == null)
+            return Long.MAX_VALUE;
+        try {
+            return Long.parseLong(cursor);
+        } catch (NumberFormatException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Неверный курсор: " + cursor);
+        }
+    }
+
+    /**
+     * Страница истории выдачи: {"items": [...], "nextCursor": "..."}.
+     * loans запрошены с limit + 1, лишняя запись только показывает, что есть следующая страница
+     */
+    static void writeLoans(HttpServletResponse response, List<LoanRecord> loans, int limit) throws IOException {
+        boolean hasNext = loans.size() > limit;
+        List<LoanRecord> page = hasNext ? loans.subList(0, limit) : loans;
+
+        JsonGenerator json = open(response);
+        json.writeStartObject();
+        json.writeArrayFieldStart("items");
+        for (LoanRecord loan : page)
+            loan.writeTo(json);
+        json.writeEndArray();
+        json.writeStringField("nextCursor", hasNext ? String.valueOf(page.get(page.size() - 1).getId()) : null);
+        json.writeEndObject();
+        json.flush();
+    }
+
+    static ResponseStatusException notFound() {
+        return new ResponseStatusException(HttpStatus.NOT_FOUND);
+    }
+}
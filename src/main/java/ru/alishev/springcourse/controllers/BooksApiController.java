@@ -0,0 +1,104 @@
+package ru.alishev.springcourse.controllers;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import ru.alishev.springcourse.dto.BookDto;
+import ru.alishev.springcourse.models.Book;
+import ru.alishev.springcourse.services.BookService;
+import ru.alishev.springcourse.util.BookCursor;
+import ru.alishev.springcourse.util.ChangeVersions;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * JSON API книг для интеграций (вместо разбора HTML страниц)
+ */
+@RestController
+@RequestMapping("/api/books")
+public class BooksApiController {
+
+    private final BookService bookService;
+    private final ChangeVersions changeVersions;
+
+    @Autowired
+    public BooksApiController(BookService bookService, ChangeVersions changeVersions) {
+        this.bookService = bookService;
+        this.changeVersions = changeVersions;
+    }
+
+    /**
+     * Страница книг: {"items": [...], "nextCursor": "..."}.
+     * nextCursor передается в следующий запрос (?cursor=...), на последней странице он null
+     *
+     * @param limit      книг на странице (не больше 1000)
+     * @param sortByYear сортировка по году
+     */
+    @GetMapping()
+    public void list(@RequestParam(value = "limit", defaultValue = "" + ApiJson.DEFAULT_LIMIT) int limit,
+                     @RequestParam(value = "sort_by_year", required = false) boolean sortByYear,
+                     @RequestParam(value = "cursor", required = false) String cursor,
+                     ServletWebRequest request, HttpServletResponse response) throws IOException {
+        ApiJson.checkLimit(limit);
+        BookCursor after;
+        try {
+            after = BookCursor.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+
+        if (changeVersions.checkNotModified(request, ChangeVersions.Aggregate.BOOKS))
+            return;
+
+        Slice<Book> slice = bookService.findAfter(after, limit, sortByYear);
+        List<Book> books = slice.getContent();
+
+        JsonGenerator json = ApiJson.open(response);
+        json.writeStartObject();
+        json.writeArrayFieldStart("items");
+        for (Book book : books)
+            BookDto.of(book).writeTo(json);
+        json.writeEndArray();
+        json.writeStringField("nextCursor",
+                slice.hasNext() ? BookCursor.after(books.get(books.size() - 1)).encode() : null);
+        json.writeEndObject();
+        json.flush();
+    }
+
+    /**
+     * Книга с владельцем (owner отсутствует, если книга свободна)
+     */
+    @GetMapping("/{id}")
+    public void show(@PathVariable("id") int id,
+                     ServletWebRequest request, HttpServletResponse response) throws IOException {
+        if (changeVersions.checkNotModified(request, ChangeVersions.Aggregate.BOOKS, ChangeVersions.Aggregate.PEOPLE))
+            return;
+
+        Book book = bookService.showWithOwner(id);
+        if (book == null)
+            throw ApiJson.notFound();
+
+        JsonGenerator json = ApiJson.open(response);
+        BookDto.withOwner(book).writeTo(json);
+        json.flush();
+    }
+
+    /**
+     * История выдачи книги, последние выдачи - первыми: {"items": [...], "nextCursor": "..."}.
+     * Пишется в фоне (см. LoanHistory), последние выдачи появляются с небольшой задержкой
+     */
+    @GetMapping("/{id}/loans")
+    public void loans(@PathVariable("id") int id,
+                      @RequestParam(value = "limit", defaultValue = "" + ApiJson.DEFAULT_LIMIT) int limit,
+                      @RequestParam(value = "cursor", required = false) String cursor,
+                      HttpServletResponse response) throws IOException {
+        ApiJson.checkLimit(limit);
+        ApiJson.writeLoans(response, bookService.getLoanHistory(id, ApiJson.loanCursor(cursor), limit + 1), limit);
+    }
+}
@@ -1,16 +1,36 @@
 package ru.alishev.springcourse.controllers;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpStatus;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.support.RedirectAttributes;
+import org.springframework.web.server.ResponseStatusException;
 import ru.alishev.springcourse.models.Book;
 import ru.alishev.springcourse.models.Person;
+import ru.alishev.springcourse.services.BookImportService;
 import ru.alishev.springcourse.services.BookService;
+import ru.alishev.springcourse.services.ExportService;
 import ru.alishev.springcourse.services.PeopleService;
+import ru.alishev.springcourse.util.BookCursor;
+import ru.alishev.springcourse.util.Bulkhead;
+import ru.alishev.springcourse.util.ChangeVersions;
+import ru.alishev.springcourse.util.RequestExecutor;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 
 @Controller
@@ -19,37 +39,75 @@ public class BooksController {
 
     private final BookService bookService;
     private final PeopleService peopleService;
+    private final BookImportService bookImportService;
+    private final ExportService exportService;
+    private final RequestExecutor requestExecutor;
+    private final ChangeVersions changeVersions;
 
     @Autowired
-    public BooksController(BookService bookService, PeopleService peopleService) {
+    public BooksController(BookService bookService, PeopleService peopleService,
+                           BookImportService bookImportService, ExportService exportService,
+                           RequestExecutor requestExecutor, ChangeVersions changeVersions) {
         this.bookService = bookService;
         this.peopleService = peopleService;
+        this.bookImportService = bookImportService;
+        this.exportService = exportService;
+        this.requestExecutor = requestExecutor;
+        this.changeVersions = changeVersions;
     }
 
     /**
      * Показывает все книги на странице.
      *
-     * @param page         страница
-     * @param booksPerPage количество книг на странице
+     * @param page         страница; без нее - первая страница keyset-пагинации
+     * @param booksPerPage количество книг на странице, не больше library.max_page_size (без параметра - оно же)
      * @param sortByYear   сортировка по году
+     * @param keyset       keyset-пагинация по курсору вместо номера страницы
+     * @param cursor       курсор, полученный на предыдущей странице (для первой страницы не указывается)
      *                     <p>
      *                     ?sort_by_year=true
      *                     ?page=1&books_per_page=4
      *                     ?page=1&books_per_page=3&sort_by_year=true
+     *                     ?keyset=true&books_per_page=3&sort_by_year=true&cursor=...
+     *                     <p>
+     *                     Если книги не менялись с прошлого запроса (If-None-Match), отвечает 304;
+     *                     если уже идет library.bulkhead.list запросов списков - 503
      */
     @GetMapping()
-    public String showAll(Model model,
+    public Object showAll(Model model, ServletWebRequest request,
                           @RequestParam(value = "page", required = false) Integer page,
                           @RequestParam(value = "books_per_page", required = false) Integer booksPerPage,
-                          @RequestParam(value = "sort_by_year", required = false) boolean sortByYear) {
-
-
-        if (page == null || booksPerPage == null)
-            model.addAttribute("books", bookService.findAll(sortByYear));
-        else
-            model.addAttribute("books", bookService.findWithPagination(page, booksPerPage, sortByYear));
-
-        return "books/show_all";
+                          @RequestParam(value = "sort_by_year", required = false) boolean sortByYear,
+                          @RequestParam(value = "keyset", required = false) boolean keyset,
+                          @RequestParam(value = "cursor", required = false) String cursor) throws Exception {
+        if (changeVersions.checkNotModified(request, ChangeVersions.Aggregate.BOOKS))
+            return null;
+
+        int perPage = requestExecutor.pageSize(booksPerPage);
+
+        return requestExecutor.submit(Bulkhead.Kind.LIST, () -> {
+            if (keyset || page == null) {
+                BookCursor after;
+                try {
+                    after = BookCursor.decode(cursor);
+                } catch (IllegalArgumentException e) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+                }
+
+                Slice<Book> slice = bookService.findAfter(after, perPage, sortByYear);
+                model.addAttribute("books", slice.getContent());
+                model.addAttribute("booksPerPage", perPage);
+                model.addAttribute("sortByYear", sortByYear);
+
+                if (slice.hasNext()) {
+                    List<Book> content = slice.getContent();
+                    model.addAttribute("nextCursor", BookCursor.after(content.get(content.size() - 1)).encode());
+                }
+            } else
+                model.addAttribute("books", bookService.findWithPagination(page, perPage, sortByYear));
+
+            return "books/show_all";
+        });
     }
 
     /**
@@ -57,22 +115,32 @@ public class BooksController {
      *
      * @param id     книги
      * @param person владелец книги
+     * @param reader начало ФИО читателя для выдачи: в списке только первые подходящие
+     *               (подсказки при вводе - /api/people/lookup)
      */
     @GetMapping("{id}")
-    private String show(@PathVariable("id") int id,
-                        Model model,
-                        @ModelAttribute("person") Person person) {
-
-        model.addAttribute("book", bookService.show(id));
-
-        Person bookOwner = bookService.getBookOwner(id);
-
-        if (bookOwner != null)
-            model.addAttribute("owner", bookOwner);
-        else
-            model.addAttribute("people", peopleService.findAll());
-
-        return "books/show";
+    private Object show(@PathVariable("id") int id,
+                        Model model, ServletWebRequest request,
+                        @ModelAttribute("person") Person person,
+                        @RequestParam(value = "reader", required = false) String reader) throws Exception {
+        // на странице владелец или список людей для выдачи
+        if (changeVersions.checkNotModified(request, ChangeVersions.Aggregate.BOOKS, ChangeVersions.Aggregate.PEOPLE))
+            return null;
+
+        return requestExecutor.submit(() -> {
+            // книга вместе с владельцем - одним запросом
+            Book book = bookService.showWithOwner(id);
+            model.addAttribute("book", book);
+
+            Person bookOwner = book == null ? null : book.getOwner();
+
+            if (bookOwner != null)
+                model.addAttribute("owner", bookOwner);
+            else
+                addReaders(model, reader);
+
+            return "books/show";
+        });
     }
 
     @GetMapping("/search")
@@ -86,11 +154,13 @@ public class BooksController {
      * @param bookName то что пользователь вводит в поле поиска
      */
     @PostMapping("/search")
-    public String makeSearch(Model model,
-                             @RequestParam(value = "bookName", required = false) String bookName) {
+    public Object makeSearch(Model model,
+                             @RequestParam(value = "bookName", required = false) String bookName) throws Exception {
 
-        model.addAttribute("findBook", bookService.searchByTitle(bookName));
-        return "books/search";
+        return requestExecutor.submit(Bulkhead.Kind.SEARCH, () -> {
+            model.addAttribute("findBook", bookService.searchByTitle(bookName));
+            return "books/search";
+        });
     }
 
     /**
@@ -116,6 +186,44 @@ public class BooksController {
         return "redirect:/books";
     }
 
+    /**
+     * форма массового импорта книг из CSV
+     */
+    @GetMapping("/import")
+    private String importPage() {
+        return "books/import";
+    }
+
+    /**
+     * массовый импорт книг из CSV-файла (title,author,year), файл читается потоково
+     */
+    @PostMapping("/import")
+    public String importCsv(@RequestParam("file") MultipartFile file, Model model) throws Exception {
+        Bulkhead.Permit permit = requestExecutor.enter(Bulkhead.Kind.IMPORT);
+        try (permit; Reader reader = new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8)) {
+            model.addAttribute("report", bookImportService.importCsv(reader));
+        }
+        return "books/import";
+    }
+
+    /**
+     * выгрузка всех книг в CSV или JSON (?format=json), строки передаются потоком
+     */
+    @GetMapping("/export")
+    public void export(@RequestParam(value = "format", defaultValue = ExportService.CSV) String format,
+                       HttpServletResponse response) throws Exception {
+        if (!ExportService.isSupported(format))
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Неизвестный формат: " + format);
+
+        Bulkhead.Permit permit = requestExecutor.enter(Bulkhead.Kind.EXPORT);
+        try (permit) {
+            response.setContentType(ExportService.JSON.equals(format) ? "application/json" : "text/csv");
+            response.setCharacterEncoding("UTF-8");
+            response.setHeader("Content-Disposition", "attachment; filename=\"books." + format + "\"");
+            exportService.exportBooks(format, response.getOutputStream());
+        }
+    }
+
     /**
      * возвращает форму для редактирования книги
      */
@@ -138,7 +246,13 @@ public class BooksController {
         if (bindingResult.hasErrors())
             return "books/edit";
 
-        bookService.update(id, book);
+        try {
+            bookService.update(id, book);
+        } catch (ObjectOptimisticLockingFailureException e) {
+            // форма была открыта до чужого изменения (поле version)
+            bindingResult.reject("", "Книгу уже изменил другой пользователь, обновите страницу");
+            return "books/edit";
+        }
 
         return "redirect:/books";
     }
@@ -153,12 +267,86 @@ public class BooksController {
         return "redirect:/books";
     }
 
+    /**
+     * форма выдачи/возврата пачки книг (стойка выдачи)
+     *
+     * @param reader начало ФИО читателя (см. show)
+     */
+    @GetMapping("/batch")
+    private String batchPage(Model model, @RequestParam(value = "reader", required = false) String reader) {
+        addReaders(model, reader);
+        return "books/batch";
+    }
+
+    /**
+     * выдает пачку книг одному человеку (action=assign) или принимает ее обратно (action=release)
+     * одной транзакцией; на странице - результат по каждой книге
+     *
+     * @param ids id книг через пробел, запятую или с новой строки
+     */
+    @PatchMapping("/batch")
+    public String batch(@RequestParam("action") String action,
+                        @RequestParam("ids") String ids,
+                        @RequestParam(value = "personId", required = false) Integer personId,
+                        Model model) throws InterruptedException {
+        Bulkhead.Permit permit = requestExecutor.enter(Bulkhead.Kind.BATCH);
+        try (permit) {
+            return applyBatch(action, ids, personId, model);
+        }
+    }
+
+    private String applyBatch(String action, String ids, Integer personId, Model model) {
+        addReaders(model, null);
+
+        Set<Integer> bookIds = new LinkedHashSet<>();
+        for (String id : ids.trim().split("[\\s,;]+")) {
+            if (id.isEmpty())
+                continue;
+            try {
+                bookIds.add(Integer.parseInt(id));
+            } catch (NumberFormatException e) {
+                model.addAttribute("error", "Некорректный id книги: " + id);
+                return "books/batch";
+            }
+        }
+
+        if (bookIds.isEmpty() || bookIds.size() > BookService.MAX_BATCH_SIZE) {
+            model.addAttribute("error", "Укажите от 1 до " + BookService.MAX_BATCH_SIZE + " книг");
+            return "books/batch";
+        }
+
+        if ("assign".equals(action)) {
+            if (personId == null) {
+                model.addAttribute("error", "Выберите человека");
+                return "books/batch";
+            }
+            Person selectedPerson = new Person();
+            selectedPerson.setPersonId(personId);
+            model.addAttribute("outcomes", bookService.assignAll(bookIds, selectedPerson));
+        } else if ("release".equals(action)) {
+            model.addAttribute("outcomes", bookService.releaseAll(bookIds));
+        } else {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Неизвестное действие: " + action);
+        }
+
+        return "books/batch";
+    }
+
+    /**
+     * первые читатели по началу ФИО для выбора, вместо всей таблицы person
+     */
+    private void addReaders(Model model, String reader) {
+        model.addAttribute("people", peopleService.lookup(reader, PeopleService.LOOKUP_LIMIT));
+        model.addAttribute("reader", reader);
+    }
+
     /**
      * освобождает книгу
      */
     @PatchMapping("/{id}/release")
-    public String release(@PathVariable("id") int id) {
-        bookService.release(id);
+    public String release(@PathVariable("id") int id, RedirectAttributes redirectAttributes) {
+        if (!bookService.release(id))
+            redirectAttributes.addFlashAttribute("conflict", "Книга уже свободна");
         return "redirect:/books/" + id;
     }
 
@@ -167,10 +355,12 @@ public class BooksController {
      */
     @PatchMapping("/{id}/assign")
     public String assign(@PathVariable("id") int id,
-                         @ModelAttribute("person") Person selectedPerson) {
+                         @ModelAttribute("person") Person selectedPerson,
+                         RedirectAttributes redirectAttributes) {
 
         // У selectedPerson назначено только поле id, остальные поля - null
-        bookService.assign(id, selectedPerson);
+        if (!bookService.assign(id, selectedPerson))
+            redirectAttributes.addFlashAttribute("conflict", "Книгу уже выдали другому читателю");
 
         return "redirect:/books/" + id;
     }
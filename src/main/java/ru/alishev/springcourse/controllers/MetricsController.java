@@ -0,0 +1,26 @@
+package ru.alishev.springcourse.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+import ru.alishev.springcourse.util.RequestMetrics;
+
+/**
+ * Метрики приложения для Prometheus
+ */
+@Controller
+public class MetricsController {
+    private final RequestMetrics requestMetrics;
+
+    @Autowired
+    public MetricsController(RequestMetrics requestMetrics) {
+        this.requestMetrics = requestMetrics;
+    }
+
+    @GetMapping(value = "/metrics", produces = "text/plain; version=0.0.4; charset=UTF-8")
+    @ResponseBody
+    public String metrics() {
+        return requestMetrics.toPrometheusText();
+    }
+}
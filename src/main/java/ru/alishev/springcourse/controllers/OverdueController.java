@@ -0,0 +1,57 @@
+package ru.alishev.springcourse.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import ru.alishev.springcourse.util.OverdueReport;
+
+import java.util.Date;
+
+@Controller
+@RequestMapping("/overdue")
+public class OverdueController {
+    private static final int DEFAULT_PER_PAGE = 50;
+    private static final int MAX_PER_PAGE = 1000;
+
+    private final OverdueReport overdueReport;
+
+    @Autowired
+    public OverdueController(OverdueReport overdueReport) {
+        this.overdueReport = overdueReport;
+    }
+
+    /**
+     * Просроченные книги с владельцами, самые давние - первыми.
+     * Страница берется из снимка (см. OverdueReport), пока снимок не обновился - отвечает 304
+     * <p>
+     * ?page=0&per_page=50
+     */
+    @GetMapping()
+    public String showAll(Model model, ServletWebRequest request,
+                          @RequestParam(value = "page", defaultValue = "0") int page,
+                          @RequestParam(value = "per_page", defaultValue = "" + DEFAULT_PER_PAGE) int perPage) {
+        if (page < 0 || perPage < 1 || perPage > MAX_PER_PAGE)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "page >= 0, per_page от 1 до " + MAX_PER_PAGE);
+
+        OverdueReport.Snapshot snapshot = overdueReport.getSnapshot();
+        if (request.checkNotModified(snapshot.getBuiltAt()))
+            return null;
+
+        model.addAttribute("loans", snapshot.page(page, perPage));
+        model.addAttribute("total", snapshot.size());
+        model.addAttribute("builtAt", new Date(snapshot.getBuiltAt()));
+        model.addAttribute("page", page);
+        model.addAttribute("perPage", perPage);
+        if ((long) (page + 1) * perPage < snapshot.size())
+            model.addAttribute("nextPage", page + 1);
+
+        return "overdue/show_all";
+    }
+}
@@ -0,0 +1,137 @@
+package ru.alishev.springcourse.controllers;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import ru.alishev.springcourse.dto.BookDto;
+import ru.alishev.springcourse.dto.PersonDto;
+import ru.alishev.springcourse.dto.PersonName;
+import ru.alishev.springcourse.models.Book;
+import ru.alishev.springcourse.models.Person;
+import ru.alishev.springcourse.services.PeopleService;
+import ru.alishev.springcourse.util.ChangeVersions;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * JSON API людей для интеграций
+ */
+@RestController
+@RequestMapping("/api/people")
+public class PeopleApiController {
+
+    private static final long OVERDUE_REFRESH_MILLIS = 60_000;
+
+    private final PeopleService peopleService;
+    private final ChangeVersions changeVersions;
+
+    @Autowired
+    public PeopleApiController(PeopleService peopleService, ChangeVersions changeVersions) {
+        this.peopleService = peopleService;
+        this.changeVersions = changeVersions;
+    }
+
+    /**
+     * Страница людей по возрастанию id: {"items": [...], "nextCursor": "..."}.
+     * Курсор - id последнего человека на странице
+     */
+    @GetMapping()
+    public void list(@RequestParam(value = "limit", defaultValue = "" + ApiJson.DEFAULT_LIMIT) int limit,
+                     @RequestParam(value = "cursor", required = false) String cursor,
+                     ServletWebRequest request, HttpServletResponse response) throws IOException {
+        ApiJson.checkLimit(limit);
+        int afterId;
+        try {
+            afterId = cursor == null || cursor.isEmpty() ? 0 : Integer.parseInt(cursor);
+        } catch (NumberFormatException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Некорректный курсор: " + cursor);
+        }
+
+        if (changeVersions.checkNotModified(request, ChangeVersions.Aggregate.PEOPLE))
+            return;
+
+        Slice<Person> slice = peopleService.findAfter(afterId, limit);
+        List<Person> people = slice.getContent();
+
+        JsonGenerator json = ApiJson.open(response);
+        json.writeStartObject();
+        json.writeArrayFieldStart("items");
+        for (Person person : people)
+            PersonDto.of(person).writeTo(json);
+        json.writeEndArray();
+        json.writeStringField("nextCursor",
+                slice.hasNext() ? String.valueOf(people.get(people.size() - 1).getPersonId()) : null);
+        json.writeEndObject();
+        json.flush();
+    }
+
+    /**
+     * Подбор читателя по началу ФИО, без учета регистра: {"items": [{"personId": 1, "fullName": "..."}, ...]}.
+     * Не больше limit людей по алфавиту; для подсказок при вводе (страница книги, выдача пачки)
+     */
+    @GetMapping("/lookup")
+    public void lookup(@RequestParam(value = "q", required = false) String prefix,
+                       @RequestParam(value = "limit", defaultValue = "" + PeopleService.LOOKUP_LIMIT) int limit,
+                       ServletWebRequest request, HttpServletResponse response) throws IOException {
+        if (limit < 1 || limit > PeopleService.MAX_LOOKUP_LIMIT)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "limit должен быть от 1 до " + PeopleService.MAX_LOOKUP_LIMIT);
+
+        if (changeVersions.checkNotModified(request, ChangeVersions.Aggregate.PEOPLE))
+            return;
+
+        JsonGenerator json = ApiJson.open(response);
+        json.writeStartObject();
+        json.writeArrayFieldStart("items");
+        for (PersonName person : peopleService.lookup(prefix, limit))
+            person.writeTo(json);
+        json.writeEndArray();
+        json.writeEndObject();
+        json.flush();
+    }
+
+    /**
+     * Человек и его книги с признаком просрочки: {"person": {...}, "books": [...]}
+     */
+    @GetMapping("/{id}")
+    public void show(@PathVariable("id") int id,
+                     ServletWebRequest request, HttpServletResponse response) throws IOException {
+        if (changeVersions.checkNotModified(request, OVERDUE_REFRESH_MILLIS,
+                ChangeVersions.Aggregate.PEOPLE, ChangeVersions.Aggregate.BOOKS))
+            return;
+
+        Person person = peopleService.findWithBooks(id);
+        if (person == null)
+            throw ApiJson.notFound();
+
+        JsonGenerator json = ApiJson.open(response);
+        json.writeStartObject();
+        json.writeFieldName("person");
+        PersonDto.of(person).writeTo(json);
+        json.writeArrayFieldStart("books");
+        for (Book book : person.getBooks())
+            BookDto.withOverdue(book).writeTo(json);
+        json.writeEndArray();
+        json.writeEndObject();
+        json.flush();
+    }
+
+    /**
+     * История выдачи человека, последние выдачи - первыми: {"items": [...], "nextCursor": "..."}.
+     * Пишется в фоне (см. LoanHistory), последние выдачи появляются с небольшой задержкой
+     */
+    @GetMapping("/{id}/loans")
+    public void loans(@PathVariable("id") int id,
+                      @RequestParam(value = "limit", defaultValue = "" + ApiJson.DEFAULT_LIMIT) int limit,
+                      @RequestParam(value = "cursor", required = false) String cursor,
+                      HttpServletResponse response) throws IOException {
+        ApiJson.checkLimit(limit);
+        ApiJson.writeLoans(response, peopleService.getLoanHistory(id, ApiJson.loanCursor(cursor), limit + 1), limit);
+    }
+}
@@ -2,45 +2,119 @@ package ru.alishev.springcourse.controllers;
 
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import ru.alishev.springcourse.dto.PersonLoanSummary;
 import ru.alishev.springcourse.models.Person;
+import ru.alishev.springcourse.services.ExportService;
 import ru.alishev.springcourse.services.PeopleService;
+import ru.alishev.springcourse.util.Bulkhead;
+import ru.alishev.springcourse.util.ChangeVersions;
 import ru.alishev.springcourse.util.PersonValidator;
+import ru.alishev.springcourse.util.RequestExecutor;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 
 @Controller
 @RequestMapping("/people")
 public class PeopleController {
+    private static final long OVERDUE_REFRESH_MILLIS = 60_000;
+
     private final PersonValidator personValidator;
     private final PeopleService peopleService;
+    private final ExportService exportService;
+    private final RequestExecutor requestExecutor;
+    private final ChangeVersions changeVersions;
 
     @Autowired
-    public PeopleController(PersonValidator personValidator, PeopleService peopleService) {
+    public PeopleController(PersonValidator personValidator, PeopleService peopleService,
+                            ExportService exportService, RequestExecutor requestExecutor,
+                            ChangeVersions changeVersions) {
         this.personValidator = personValidator;
         this.peopleService = peopleService;
+        this.exportService = exportService;
+        this.requestExecutor = requestExecutor;
+        this.changeVersions = changeVersions;
     }
 
+    /**
+     * список людей по страницам
+     *
+     * @param page          страница, с 0
+     * @param peoplePerPage людей на странице, не больше library.max_page_size (без параметра - оно же)
+     */
     @GetMapping()
-    private String showAll(Model model) {
-        model.addAttribute("people", peopleService.findAll());
-        return "people/show_all";
+    private Object showAll(Model model, ServletWebRequest request,
+                           @RequestParam(value = "page", defaultValue = "0") int page,
+                           @RequestParam(value = "people_per_page", required = false) Integer peoplePerPage)
+            throws Exception {
+        if (page < 0)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Номер страницы не может быть меньше 0");
+        int perPage = requestExecutor.pageSize(peoplePerPage);
+
+        // в списке есть число книг и просроченных книг - ETag зависит и от книг, и от времени
+        if (changeVersions.checkNotModified(request, OVERDUE_REFRESH_MILLIS,
+                ChangeVersions.Aggregate.PEOPLE, ChangeVersions.Aggregate.BOOKS))
+            return null;
+
+        return requestExecutor.submit(Bulkhead.Kind.LIST, () -> {
+            Slice<PersonLoanSummary> slice = peopleService.findAllWithLoanCounts(page, perPage);
+            model.addAttribute("people", slice.getContent());
+            model.addAttribute("peoplePerPage", perPage);
+            if (slice.hasNext())
+                model.addAttribute("nextPage", page + 1);
+            return "people/show_all";
+        });
+    }
+
+    /**
+     * выгрузка всех людей в CSV или JSON (?format=json), строки передаются потоком
+     */
+    @GetMapping("/export")
+    public void export(@RequestParam(value = "format", defaultValue = ExportService.CSV) String format,
+                       HttpServletResponse response) throws Exception {
+        if (!ExportService.isSupported(format))
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Неизвестный формат: " + format);
+
+        Bulkhead.Permit permit = requestExecutor.enter(Bulkhead.Kind.EXPORT);
+        try (permit) {
+            response.setContentType(ExportService.JSON.equals(format) ? "application/json" : "text/csv");
+            response.setCharacterEncoding("UTF-8");
+            response.setHeader("Content-Disposition", "attachment; filename=\"people." + format + "\"");
+            exportService.exportPeople(format, response.getOutputStream());
+        }
     }
 
     /**
-     * получает одного человека по его id из DAO
+     * получает одного человека вместе с его книгами (одним запросом)
      * и передает на отображение в представление
      */
     @GetMapping("/{person_id}")
-    private String show(@PathVariable("person_id") int id,
-                        Model model) {
-        model.addAttribute("person", peopleService.findOne(id));
-        model.addAttribute("books", peopleService.getBooksByPersonId(id));
-
-        return "people/show";
+    private Object show(@PathVariable("person_id") int id,
+                        Model model, ServletWebRequest request) throws Exception {
+        // просрочка книг зависит от текущего времени, поэтому ETag меняется и раз в минуту
+        if (changeVersions.checkNotModified(request, OVERDUE_REFRESH_MILLIS,
+                ChangeVersions.Aggregate.PEOPLE, ChangeVersions.Aggregate.BOOKS))
+            return null;
+
+        return requestExecutor.submit(() -> {
+            Person person = peopleService.findWithBooks(id);
+            if (person == null)
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+
+            model.addAttribute("person", person);
+            model.addAttribute("books", person.getBooks());
+
+            return "people/show";
+        });
     }
 
     /**
@@ -62,7 +136,13 @@ public class PeopleController {
             return "people/new";
         }
 
-        peopleService.save(person);
+        try {
+            peopleService.save(person);
+        } catch (DataIntegrityViolationException e) {
+            // такое же ФИО успели сохранить параллельно - сработал уникальный индекс
+            PersonValidator.rejectDuplicate(bindingResult);
+            return "people/new";
+        }
         return "redirect:/people";
     }
 
@@ -80,7 +160,12 @@ public class PeopleController {
         if (bindingResult.hasErrors())
             return "people/edit";
 
-        peopleService.update(id, person);
+        try {
+            peopleService.update(id, person);
+        } catch (DataIntegrityViolationException e) {
+            PersonValidator.rejectDuplicate(bindingResult);
+            return "people/edit";
+        }
         return "redirect:/people";
     }
 
@@ -1,17 +1,141 @@
 package ru.alishev.springcourse.dao;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import ru.alishev.springcourse.dto.BookVersion;
 import ru.alishev.springcourse.models.Book;
-import ru.alishev.springcourse.models.Person;
 
-import java.util.Comparator;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 
 @Component
 public class BookDAO {
 
+    // не больше 32767 параметров в одном запросе PostgreSQL
+    private static final int MAX_ROWS_PER_INSERT = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public BookDAO(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Вставка пачки книг многострочными INSERT; назначенные БД id записываются в книги.
+     * Hibernate не группирует вставки при GenerationType.IDENTITY (ему нужен id каждой строки),
+     * а драйвер PostgreSQL не переписывает batch в многострочный INSERT (reWriteBatchedInserts),
+     * если запрошены сгенерированные ключи, - поэтому такой INSERT собирается здесь.
+     */
+    @Transactional
+    public void insertBatch(List<Book> books) {
+        for (int from = 0; from < books.size(); from += MAX_ROWS_PER_INSERT)
+            insertRows(books.subList(from, Math.min(from + MAX_ROWS_PER_INSERT, books.size())));
+    }
+
+    private void insertRows(List<Book> books) {
+        StringBuilder sql = new StringBuilder("INSERT INTO book(title, author, year, version) VALUES ");
+        for (int i = 0; i < books.size(); i++)
+            sql.append(i == 0 ? "(?, ?, ?, 0)" : ", (?, ?, ?, 0)");
+
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql.toString(), new String[]{"id"});
+            int index = 1;
+            for (Book book : books) {
+                statement.setString(index++, book.getTitle());
+                statement.setString(index++, book.getAuthor());
+                statement.setInt(index++, book.getYear());
+            }
+            return statement;
+        }, keyHolder);
+
+        // ключи возвращаются в порядке строк VALUES
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+        for (int i = 0; i < books.size(); i++)
+            books.get(i).setId(((Number) keys.get(i).values().iterator().next()).intValue());
+    }
+
+    /**
+     * Обходит все книги курсором БД: строки приходят порциями по fetchSize
+     * и сразу передаются в handler, сущности не создаются.
+     * Для PostgreSQL курсор работает только внутри транзакции (autocommit = false).
+     */
+    public void forEachBook(int fetchSize, RowCallbackHandler handler) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(
+                    "SELECT id, title, author, year, person_id, date_take_book FROM book ORDER BY id");
+            statement.setFetchSize(fetchSize);
+            return statement;
+        }, handler);
+    }
+
+    /**
+     * Выдача книг человеку одним условным UPDATE: выдаются только свободные книги,
+     * поэтому из двух одновременных выдач одной книги успешна только одна
+     *
+     * @return id и новая версия каждой выданной книги
+     */
+    public List<BookVersion> assign(Collection<Integer> ids, int personId, Date dateTakeBook) {
+        List<Object> args = new ArrayList<>();
+        args.add(personId);
+        args.add(new Timestamp(dateTakeBook.getTime()));
+        args.addAll(ids);
+        return updateReturningVersions("UPDATE book SET person_id = ?, date_take_book = ?, version = version + 1 " +
+                "WHERE person_id IS NULL AND id IN (" + placeholders(ids.size()) + ")", args.toArray());
+    }
+
+    /**
+     * Возврат книг одним условным UPDATE: возвращаются только занятые книги
+     *
+     * @return id и новая версия каждой возвращенной книги
+     */
+    public List<BookVersion> release(Collection<Integer> ids) {
+        return updateReturningVersions("UPDATE book SET person_id = NULL, date_take_book = NULL, " +
+                "version = version + 1 WHERE person_id IS NOT NULL AND id IN (" + placeholders(ids.size()) + ")",
+                ids.toArray());
+    }
+
+    /**
+     * Возврат всех книг человека (перед его удалением)
+     *
+     * @return id и новая версия каждой возвращенной книги
+     */
+    public List<BookVersion> releaseAllOf(int personId) {
+        return updateReturningVersions("UPDATE book SET person_id = NULL, date_take_book = NULL, " +
+                "version = version + 1 WHERE person_id = ?", personId);
+    }
+
+    // Новые версии возвращает сам UPDATE как сгенерированные ключи (драйвер PostgreSQL дописывает
+    // RETURNING id, version), без отдельного SELECT. Hibernate об этом UPDATE не знает -
+    // кэши книг сбрасывает вызывающий (см. SecondLevelCache.evictBooksAfterCommit)
+    private List<BookVersion> updateReturningVersions(String sql, Object... args) {
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql, new String[]{"id", "version"});
+            new ArgumentPreparedStatementSetter(args).setValues(statement);
+            return statement;
+        }, keyHolder);
+
+        List<BookVersion> versions = new ArrayList<>();
+        for (Map<String, Object> key : keyHolder.getKeyList())
+            versions.add(new BookVersion(((Number) key.get("id")).intValue(), ((Number) key.get("version")).intValue()));
+        return versions;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
 }
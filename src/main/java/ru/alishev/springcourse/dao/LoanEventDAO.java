@@ -0,0 +1,74 @@
+package ru.alishev.springcourse.dao;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+import ru.alishev.springcourse.dto.LoanEvent;
+import ru.alishev.springcourse.dto.LoanRecord;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+
+@Component
+public class LoanEventDAO {
+
+    // выдача и закрывающий ее возврат той же книги: первый RETURNED с версией книги не меньше, чем у выдачи
+    // (см. V5__loan_event_book_version.sql); у событий без версии - следующий по id
+    private static final String LOANS = "SELECT t.id, t.book_id, b.title, t.person_id, p.full_name, " +
+            "t.occurred_at AS taken_at, " +
+            "CASE WHEN t.book_version IS NULL " +
+            "THEN (SELECT r.occurred_at FROM loan_event r WHERE r.book_id = t.book_id AND r.event_type = 'RETURNED' " +
+            "AND r.id > t.id ORDER BY r.id LIMIT 1) " +
+            "ELSE (SELECT r.occurred_at FROM loan_event r WHERE r.book_id = t.book_id AND r.event_type = 'RETURNED' " +
+            "AND r.book_version >= t.book_version ORDER BY r.book_version, r.id LIMIT 1) END AS returned_at " +
+            "FROM loan_event t " +
+            "LEFT JOIN book b ON b.id = t.book_id " +
+            "LEFT JOIN person p ON p.person_id = t.person_id ";
+
+    private static final RowMapper<LoanRecord> LOAN_RECORD = (rs, rowNum) -> new LoanRecord(
+            rs.getLong("id"), rs.getInt("book_id"), rs.getString("title"),
+            rs.getInt("person_id"), rs.getString("full_name"),
+            rs.getTimestamp("taken_at"), rs.getTimestamp("returned_at"));
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public LoanEventDAO(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Вставка пачки событий одним JDBC batch;
+     * драйвер PostgreSQL (reWriteBatchedInserts) превращает его в многострочный INSERT
+     */
+    public void insertBatch(List<LoanEvent> events) {
+        jdbcTemplate.batchUpdate("INSERT INTO loan_event(book_id, book_version, person_id, event_type, occurred_at) " +
+                        "VALUES (?, ?, ?, ?, ?)",
+                events, events.size(),
+                (statement, event) -> {
+                    statement.setInt(1, event.getBookId());
+                    statement.setInt(2, event.getBookVersion());
+                    statement.setObject(3, event.getPersonId(), Types.INTEGER);
+                    statement.setString(4, event.getType().name());
+                    statement.setTimestamp(5, new Timestamp(event.getOccurredAt().getTime()));
+                });
+    }
+
+    /**
+     * Выдачи книги, последние - первыми, с id события меньше beforeId
+     */
+    public List<LoanRecord> findLoansOfBook(int bookId, long beforeId, int limit) {
+        return jdbcTemplate.query(LOANS + "WHERE t.book_id = ? AND t.event_type = 'TAKEN' AND t.id < ? " +
+                "ORDER BY t.id DESC LIMIT ?", LOAN_RECORD, bookId, beforeId, limit);
+    }
+
+    /**
+     * Выдачи человеку, последние - первыми, с id события меньше beforeId
+     */
+    public List<LoanRecord> findLoansOfPerson(int personId, long beforeId, int limit) {
+        return jdbcTemplate.query(LOANS + "WHERE t.person_id = ? AND t.event_type = 'TAKEN' AND t.id < ? " +
+                "ORDER BY t.id DESC LIMIT ?", LOAN_RECORD, personId, beforeId, limit);
+    }
+}
@@ -1,9 +1,33 @@
 package ru.alishev.springcourse.dao;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Component;
 
+import java.sql.PreparedStatement;
+
 @Component
 public class PersonDAO {
     // здесь будут лежать специфические запросы к БД
     // с помощью SQL
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public PersonDAO(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Обходит всех людей курсором БД порциями по fetchSize (см. BookDAO.forEachBook)
+     */
+    public void forEachPerson(int fetchSize, RowCallbackHandler handler) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(
+                    "SELECT person_id, full_name, year_of_birth FROM person ORDER BY person_id");
+            statement.setFetchSize(fetchSize);
+            return statement;
+        }, handler);
+    }
 }
@@ -0,0 +1,64 @@
+package ru.alishev.springcourse.dto;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import ru.alishev.springcourse.models.Book;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Книга для JSON API. Вместо сущности отдается плоская проекция:
+ * у Book.owner есть обратная ссылка Person.books, и сериализация графа зациклилась бы.
+ */
+public class BookDto {
+    private final int id;
+    private final String title;
+    private final String author;
+    private final int year;
+    private final Date dateTakeBook;
+    // null, если не загружен (список книг)
+    private final PersonDto owner;
+    // null, если не вычислялся (см. PeopleService.findWithBooks)
+    private final Boolean overdue;
+
+    private BookDto(Book book, PersonDto owner, Boolean overdue) {
+        this.id = book.getId();
+        this.title = book.getTitle();
+        this.author = book.getAuthor();
+        this.year = book.getYear();
+        this.dateTakeBook = book.getDateTakeBook();
+        this.owner = owner;
+        this.overdue = overdue;
+    }
+
+    // владелец не читается: в списках он не загружен (ленивая связь)
+    public static BookDto of(Book book) {
+        return new BookDto(book, null, null);
+    }
+
+    // книга, загруженная вместе с владельцем (граф "Book.owner")
+    public static BookDto withOwner(Book book) {
+        return new BookDto(book, book.getOwner() == null ? null : PersonDto.of(book.getOwner()), null);
+    }
+
+    // книга из списка книг человека, с признаком просрочки
+    public static BookDto withOverdue(Book book) {
+        return new BookDto(book, null, book.isOverdue());
+    }
+
+    public void writeTo(JsonGenerator json) throws IOException {
+        json.writeStartObject();
+        json.writeNumberField("id", id);
+        json.writeStringField("title", title);
+        json.writeStringField("author", author);
+        json.writeNumberField("year", year);
+        json.writeStringField("dateTakeBook", dateTakeBook == null ? null : dateTakeBook.toInstant().toString());
+        if (owner != null) {
+            json.writeFieldName("owner");
+            owner.writeTo(json);
+        }
+        if (overdue != null)
+            json.writeBooleanField("overdue", overdue);
+        json.writeEndObject();
+    }
+}
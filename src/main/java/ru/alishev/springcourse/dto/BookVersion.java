@@ -0,0 +1,23 @@
+package ru.alishev.springcourse.dto;
+
+/**
+ * Id книги и ее версия (Book.version) после выдачи или возврата - по версии
+ * история связывает возврат с выдачей (см. LoanEventDAO)
+ */
+public class BookVersion {
+    private final int bookId;
+    private final int version;
+
+    public BookVersion(int bookId, int version) {
+        this.bookId = bookId;
+        this.version = version;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,48 @@
+package ru.alishev.springcourse.dto;
+
+import java.util.Date;
+
+/**
+ * Выдача или возврат книги - строка таблицы loan_event (см. LoanHistory)
+ */
+public class LoanEvent {
+    public enum Type {
+        TAKEN, RETURNED
+    }
+
+    private final Type type;
+    private final int bookId;
+    // версия книги после выдачи или возврата (см. BookVersion)
+    private final int bookVersion;
+    // null у RETURNED
+    private final Integer personId;
+    private final Date occurredAt;
+
+    public LoanEvent(Type type, int bookId, int bookVersion, Integer personId, Date occurredAt) {
+        this.type = type;
+        this.bookId = bookId;
+        this.bookVersion = bookVersion;
+        this.personId = personId;
+        this.occurredAt = occurredAt;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+
+    public int getBookVersion() {
+        return bookVersion;
+    }
+
+    public Integer getPersonId() {
+        return personId;
+    }
+
+    public Date getOccurredAt() {
+        return occurredAt;
+    }
+}
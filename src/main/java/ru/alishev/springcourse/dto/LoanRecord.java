@@ -0,0 +1,47 @@
+package ru.alishev.springcourse.dto;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Одна выдача книги из истории: кто и когда взял, когда вернул (null - книга еще у него).
+ * Название и ФИО - текущие, null если книга или человек удалены
+ */
+public class LoanRecord {
+    // id события TAKEN - курсор для следующей страницы истории
+    private final long id;
+    private final int bookId;
+    private final String title;
+    private final int personId;
+    private final String fullName;
+    private final Date takenAt;
+    private final Date returnedAt;
+
+    public LoanRecord(long id, int bookId, String title, int personId, String fullName,
+                      Date takenAt, Date returnedAt) {
+        this.id = id;
+        this.bookId = bookId;
+        this.title = title;
+        this.personId = personId;
+        this.fullName = fullName;
+        this.takenAt = takenAt;
+        this.returnedAt = returnedAt;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void writeTo(JsonGenerator json) throws IOException {
+        json.writeStartObject();
+        json.writeNumberField("bookId", bookId);
+        json.writeStringField("title", title);
+        json.writeNumberField("personId", personId);
+        json.writeStringField("fullName", fullName);
+        json.writeStringField("takenAt", takenAt.toInstant().toString());
+        json.writeStringField("returnedAt", returnedAt == null ? null : returnedAt.toInstant().toString());
+        json.writeEndObject();
+    }
+}
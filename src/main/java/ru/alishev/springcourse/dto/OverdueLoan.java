@@ -0,0 +1,59 @@
+package ru.alishev.springcourse.dto;
+
+import java.util.Date;
+
+/**
+ * Строка отчета о просрочках: книга и человек, который ее держит.
+ * Создается запросом-проекцией (см. BookRepository.findAllOverdue)
+ */
+public class OverdueLoan {
+    private final int bookId;
+    private final String title;
+    private final String author;
+    private final int personId;
+    private final String fullName;
+    private final Date dateTakeBook;
+    // на момент построения отчета (см. OverdueReport)
+    private long daysOverdue;
+
+    public OverdueLoan(int bookId, String title, String author, int personId, String fullName, Date dateTakeBook) {
+        this.bookId = bookId;
+        this.title = title;
+        this.author = author;
+        this.personId = personId;
+        this.fullName = fullName;
+        this.dateTakeBook = dateTakeBook;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public int getPersonId() {
+        return personId;
+    }
+
+    public String getFullName() {
+        return fullName;
+    }
+
+    public Date getDateTakeBook() {
+        return dateTakeBook;
+    }
+
+    public long getDaysOverdue() {
+        return daysOverdue;
+    }
+
+    public void setDaysOverdue(long daysOverdue) {
+        this.daysOverdue = daysOverdue;
+    }
+}
@@ -0,0 +1,33 @@
+package ru.alishev.springcourse.dto;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import ru.alishev.springcourse.models.Person;
+
+import java.io.IOException;
+
+/**
+ * Человек для JSON API, без коллекции книг (см. BookDto)
+ */
+public class PersonDto {
+    private final int personId;
+    private final String fullName;
+    private final int yearOfBirth;
+
+    private PersonDto(int personId, String fullName, int yearOfBirth) {
+        this.personId = personId;
+        this.fullName = fullName;
+        this.yearOfBirth = yearOfBirth;
+    }
+
+    public static PersonDto of(Person person) {
+        return new PersonDto(person.getPersonId(), person.getFullName(), person.getYearOfBirth());
+    }
+
+    public void writeTo(JsonGenerator json) throws IOException {
+        json.writeStartObject();
+        json.writeNumberField("personId", personId);
+        json.writeStringField("fullName", fullName);
+        json.writeNumberField("yearOfBirth", yearOfBirth);
+        json.writeEndObject();
+    }
+}
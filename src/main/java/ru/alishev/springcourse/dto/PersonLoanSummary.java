@@ -0,0 +1,41 @@
+package ru.alishev.springcourse.dto;
+
+/**
+ * Строка списка людей: человек, число взятых им книг и число просроченных.
+ * Создается запросом-проекцией (см. PeopleRepository.findAllWithLoanCounts)
+ */
+public class PersonLoanSummary {
+    private final int personId;
+    private final String fullName;
+    private final int yearOfBirth;
+    private final long loanCount;
+    private final long overdueCount;
+
+    public PersonLoanSummary(int personId, String fullName, int yearOfBirth, long loanCount, long overdueCount) {
+        this.personId = personId;
+        this.fullName = fullName;
+        this.yearOfBirth = yearOfBirth;
+        this.loanCount = loanCount;
+        this.overdueCount = overdueCount;
+    }
+
+    public int getPersonId() {
+        return personId;
+    }
+
+    public String getFullName() {
+        return fullName;
+    }
+
+    public int getYearOfBirth() {
+        return yearOfBirth;
+    }
+
+    public long getLoanCount() {
+        return loanCount;
+    }
+
+    public long getOverdueCount() {
+        return overdueCount;
+    }
+}
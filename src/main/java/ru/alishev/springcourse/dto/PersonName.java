@@ -0,0 +1,33 @@
+package ru.alishev.springcourse.dto;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+
+/**
+ * Только id и ФИО человека - для выбора читателя (см. PeopleRepository.findNamesByPrefix)
+ */
+public class PersonName {
+    private final int personId;
+    private final String fullName;
+
+    public PersonName(int personId, String fullName) {
+        this.personId = personId;
+        this.fullName = fullName;
+    }
+
+    public int getPersonId() {
+        return personId;
+    }
+
+    public String getFullName() {
+        return fullName;
+    }
+
+    public void writeTo(JsonGenerator json) throws IOException {
+        json.writeStartObject();
+        json.writeNumberField("personId", personId);
+        json.writeStringField("fullName", fullName);
+        json.writeEndObject();
+    }
+}
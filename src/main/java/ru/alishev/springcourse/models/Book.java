@@ -1,5 +1,8 @@
 package ru.alishev.springcourse.models;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
@@ -8,6 +11,9 @@ import java.util.Date;
 
 @Entity
 @Table(name = "book")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@NamedEntityGraph(name = "Book.owner", attributeNodes = @NamedAttributeNode("owner"))
 public class Book {
     @Id
     @Column(name = "id")
@@ -28,7 +34,8 @@ public class Book {
     @Column(name = "year")
     private int year;
 
-    @ManyToOne
+    // владелец загружается лениво; страницам, где он нужен, - граф "Book.owner" (см. BookRepository)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "person_id", referencedColumnName = "person_id")
     private Person owner;
 
@@ -36,6 +43,11 @@ public class Book {
     @Temporal(TemporalType.TIMESTAMP)
     private Date dateTakeBook;
 
+    // оптимистическая блокировка: одновременное редактирование одной книги не затирает изменения молча
+    @Version
+    @Column(name = "version")
+    private int version;
+
     @Transient
     private boolean isOverdue;
 
@@ -48,6 +60,14 @@ public class Book {
         this.year = year;
     }
 
+    // для запросов-проекций (см. PeopleService.findWithBooks) - объект не попадает в Persistence context
+    public Book(int id, String title, String author, int year, Date dateTakeBook, boolean isOverdue) {
+        this(title, author, year);
+        this.id = id;
+        this.dateTakeBook = dateTakeBook;
+        this.isOverdue = isOverdue;
+    }
+
     public int getId() {
         return id;
     }
@@ -96,11 +116,15 @@ public class Book {
         this.dateTakeBook = dateTakeBook;
     }
 
-    public boolean isOverdue() {
-        return isOverdue;
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
     }
 
-    public void setOverdue(boolean overdue) {
-        isOverdue = overdue;
+    public boolean isOverdue() {
+        return isOverdue;
     }
 }
@@ -1,11 +1,16 @@
 package ru.alishev.springcourse.models;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 import javax.validation.constraints.*;
 import java.util.List;
 
 @Entity
 @Table(name = "person")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Person {
     @Id
     @Column(name = "person_id")
@@ -16,14 +21,16 @@ public class Person {
             message = "Введите ФИО в формате: Фамилия Имя Отчество")
     @NotEmpty(message = "Имя не должно быть пустым")
     @Size(min = 2, max = 100, message = "Имя должно быть от 2 до 100 символов длиной")
-    @Column(name = "full_name")
+    @Column(name = "full_name", unique = true)
     private String fullName;
 
     @Min(value = 1900, message = "Год рождения должен быть больше, чем 1900")
     @Column(name = "year_of_birth")
     private int yearOfBirth;
 
+    // кэш коллекции сбрасывается вручную (см. SecondLevelCache)
     @OneToMany(mappedBy = "owner")
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     List<Book> books;
 
     // нужен для Spring
@@ -1,15 +1,58 @@
 package ru.alishev.springcourse.repositories;
 
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import ru.alishev.springcourse.dto.OverdueLoan;
 import ru.alishev.springcourse.models.Book;
-import ru.alishev.springcourse.models.Person;
 
+import javax.persistence.LockModeType;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface BookRepository extends JpaRepository<Book, Integer> {
+    @EntityGraph("Book.owner")
     List<Book> findAllByTitleStartingWith(String title);
+
+    // Book.owner ленивый - для страниц, где нужен владелец, он подгружается тем же запросом
+    @EntityGraph("Book.owner")
+    Optional<Book> findWithOwnerById(int id);
+
+    @Query("select b from Book b left join fetch b.owner")
+    List<Book> findAllWithOwner();
+
+    // Все просроченные книги с владельцами одним запросом (индекс по date_take_book), самые давние - первыми
+    @Query("select new ru.alishev.springcourse.dto.OverdueLoan(b.id, b.title, b.author, p.personId, p.fullName, " +
+            "b.dateTakeBook) from Book b join b.owner p where b.dateTakeBook < :overdueBefore " +
+            "order by b.dateTakeBook, b.id")
+    List<OverdueLoan> findAllOverdue(@Param("overdueBefore") Date overdueBefore);
+
+    // Slice вместо Page - без дополнительного запроса count(*)
+    Slice<Book> findAllBy(Pageable pageable);
+
+    // Keyset-пагинация: следующая порция после книги с ключом (year, id).
+    // Условие year >= :year - граница диапазона индекса (year, id); через OR индекс читался бы с начала
+    @Query("select b from Book b where b.year >= :year and (b.year > :year or b.id > :id) order by b.year, b.id")
+    Slice<Book> findNextByYear(@Param("year") int year, @Param("id") int id, Pageable pageable);
+
+    // Keyset-пагинация: следующая порция после книги с ключом id
+    @Query("select b from Book b where b.id > :id order by b.id")
+    Slice<Book> findNextById(@Param("id") int id, Pageable pageable);
+
+    /**
+     * Пары (id книги, id владельца или null) с блокировкой строк до конца транзакции (SELECT ... FOR UPDATE).
+     * Порядок по id - чтобы две пачки с общими книгами не заблокировали друг друга
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select b.id, b.owner.personId from Book b where b.id in :ids order by b.id")
+    List<Object[]> lockOwners(@Param("ids") Collection<Integer> ids);
 }
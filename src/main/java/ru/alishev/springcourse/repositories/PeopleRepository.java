@@ -1,14 +1,56 @@
 package ru.alishev.springcourse.repositories;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import ru.alishev.springcourse.dto.PersonLoanSummary;
+import ru.alishev.springcourse.dto.PersonName;
 import ru.alishev.springcourse.models.Person;
 
+import javax.persistence.QueryHint;
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface PeopleRepository extends JpaRepository<Person, Integer> {
-    List<Person> findAllByOrderByFullName();
+    // результаты запросов кэшируются (hibernate.cache.use_query_cache)
+    // и сбрасываются Hibernate при любом изменении таблицы person
+    @QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
     Optional<Person> findPersonByFullName(String name);
+
+    // id и ФИО людей, чье ФИО начинается с prefix без учета регистра, по индексу на lower(full_name);
+    // % и _ в prefix - обычные символы. Оба lower() считает база: в базе с lc_ctype=C кириллица
+    // не приводится к нижнему регистру, и поиск по ней просто становится чувствительным к регистру
+    @Query("select new ru.alishev.springcourse.dto.PersonName(p.personId, p.fullName) from Person p " +
+            "where lower(p.fullName) like lower(concat(?#{escape([0])}, '%')) escape ?#{escapeCharacter()} " +
+            "order by p.fullName")
+    List<PersonName> findNamesByPrefix(String prefix, Pageable pageable);
+
+    // только имена, без загрузки сущностей (см. PersonNameFilter)
+    @Query("select p.fullName from Person p")
+    List<String> findAllFullNames();
+
+    // keyset-пагинация по id (JSON API)
+    Slice<Person> findByPersonIdGreaterThanOrderByPersonId(int personId, Pageable pageable);
+
+    // человек вместе с книгами - одним запросом, просроченность книги вычисляется в самом запросе.
+    // Строка: personId, fullName, yearOfBirth, id, title, author, year, dateTakeBook, overdue;
+    // поля книги - null, если книг у человека нет
+    @Query("select p.personId, p.fullName, p.yearOfBirth, b.id, b.title, b.author, b.year, b.dateTakeBook, " +
+            "case when b.dateTakeBook < :overdueBefore then true else false end " +
+            "from Person p left join p.books b where p.personId = :id order by b.dateTakeBook")
+    List<Object[]> findWithBooksById(@Param("id") int id, @Param("overdueBefore") Date overdueBefore);
+
+    // люди с числом взятых и просроченных книг, по страницам; считается в самом запросе, без загрузки книг
+    @QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
+    @Query("select new ru.alishev.springcourse.dto.PersonLoanSummary(p.personId, p.fullName, p.yearOfBirth, " +
+            "count(b.id), sum(case when b.dateTakeBook < :overdueBefore then 1 else 0 end)) " +
+            "from Person p left join p.books b " +
+            "group by p.personId, p.fullName, p.yearOfBirth order by p.fullName")
+    Slice<PersonLoanSummary> findAllWithLoanCounts(@Param("overdueBefore") Date overdueBefore, Pageable pageable);
 }
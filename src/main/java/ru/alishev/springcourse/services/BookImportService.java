@@ -0,0 +1,132 @@
+package ru.alishev.springcourse.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import ru.alishev.springcourse.dao.BookDAO;
+import ru.alishev.springcourse.models.Book;
+import ru.alishev.springcourse.util.BookSearchIndex;
+import ru.alishev.springcourse.util.ChangeVersions;
+import ru.alishev.springcourse.util.CsvReader;
+import ru.alishev.springcourse.util.ImportReport;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Массовый импорт книг из CSV (title,author,year).
+ * <p>
+ * Файл читается потоково, каждая строка проверяется теми же ограничениями, что и форма книги,
+ * а корректные строки вставляются пачками по library.import.batch_size -
+ * в памяти одновременно не больше одной пачки.
+ */
+@Service
+public class BookImportService {
+
+    private static final String[] HEADER = {"title", "author", "year"};
+
+    private final BookDAO bookDAO;
+    private final BookSearchIndex bookSearchIndex;
+    private final ChangeVersions changeVersions;
+    // валидатор приложения (SpringConfig.validator), тот же, что проверяет форму книги
+    private final Validator validator;
+    private final int batchSize;
+
+    @Autowired
+    public BookImportService(BookDAO bookDAO, BookSearchIndex bookSearchIndex, ChangeVersions changeVersions,
+                             Validator validator, Environment environment) {
+        this.bookDAO = bookDAO;
+        this.bookSearchIndex = bookSearchIndex;
+        this.changeVersions = changeVersions;
+        this.validator = validator;
+        this.batchSize = environment.getProperty("library.import.batch_size", Integer.class, 1000);
+    }
+
+    /**
+     * Каждая пачка вставляется в своей транзакции, поэтому ошибка в середине файла
+     * не откатывает уже импортированные книги
+     */
+    public ImportReport importCsv(Reader source) throws IOException {
+        long start = System.currentTimeMillis();
+        ImportReport report = new ImportReport();
+        List<Book> batch = new ArrayList<>(batchSize);
+
+        try (CsvReader csv = new CsvReader(source)) {
+            List<String> record;
+            boolean first = true;
+
+            while ((record = csv.next()) != null) {
+                if (first) {
+                    first = false;
+                    if (isHeader(record))
+                        continue;
+                }
+
+                Book book = parse(record, csv.getRecordLine(), report);
+                if (book == null)
+                    continue;
+
+                batch.add(book);
+                if (batch.size() == batchSize) {
+                    flush(batch, report);
+                }
+            }
+            flush(batch, report);
+        }
+
+        report.setElapsedMillis(System.currentTimeMillis() - start);
+        return report;
+    }
+
+    private Book parse(List<String> record, long line, ImportReport report) {
+        if (record.size() != HEADER.length) {
+            report.reject(line, "ожидается " + HEADER.length + " поля (title,author,year), найдено " + record.size());
+            return null;
+        }
+
+        int year;
+        try {
+            year = Integer.parseInt(record.get(2).trim());
+        } catch (NumberFormatException e) {
+            report.reject(line, "год должен быть числом: " + record.get(2));
+            return null;
+        }
+
+        Book book = new Book(record.get(0).trim(), record.get(1).trim(), year);
+        Set<ConstraintViolation<Book>> violations = validator.validate(book);
+        if (!violations.isEmpty()) {
+            report.reject(line, violations.stream()
+                    .map(ConstraintViolation::getMessage)
+                    .collect(Collectors.joining("; ")));
+            return null;
+        }
+        return book;
+    }
+
+    private void flush(List<Book> batch, ImportReport report) {
+        if (batch.isEmpty())
+            return;
+
+        bookDAO.insertBatch(batch);
+        // пачка уже закоммичена: новые книги сразу находятся поиском, без перестроения всего индекса
+        batch.forEach(bookSearchIndex::put);
+        changeVersions.changed(ChangeVersions.Aggregate.BOOKS);
+        report.addImported(batch.size());
+        batch.clear();
+    }
+
+    private static boolean isHeader(List<String> record) {
+        if (record.size() != HEADER.length)
+            return false;
+        for (int i = 0; i < HEADER.length; i++)
+            if (!HEADER[i].equalsIgnoreCase(record.get(i).trim()))
+                return false;
+        return true;
+    }
+}
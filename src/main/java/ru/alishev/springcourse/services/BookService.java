@@ -3,25 +3,63 @@ package ru.alishev.springcourse.services;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import ru.alishev.springcourse.dao.BookDAO;
+import ru.alishev.springcourse.dao.LoanEventDAO;
+import ru.alishev.springcourse.dto.BookVersion;
+import ru.alishev.springcourse.dto.LoanRecord;
 import ru.alishev.springcourse.models.Book;
 import ru.alishev.springcourse.models.Person;
 import ru.alishev.springcourse.repositories.BookRepository;
+import ru.alishev.springcourse.util.BookCursor;
+import ru.alishev.springcourse.util.BookSearchIndex;
+import ru.alishev.springcourse.util.ChangeVersions;
+import ru.alishev.springcourse.util.LoanHistory;
+import ru.alishev.springcourse.util.SecondLevelCache;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @Service
 @Transactional(readOnly = true)
 public class BookService {
 
+    // результат выдачи/возврата одной книги из пачки
+    public enum LoanOutcome {
+        DONE, ALREADY_TAKEN, ALREADY_FREE, NOT_FOUND
+    }
+
+    public static final int MAX_BATCH_SIZE = 500;
+
     private final BookRepository bookRepository;
+    private final BookDAO bookDAO;
+    private final BookSearchIndex bookSearchIndex;
+    private final SecondLevelCache secondLevelCache;
+    private final ChangeVersions changeVersions;
+    private final LoanHistory loanHistory;
+    private final LoanEventDAO loanEventDAO;
 
     @Autowired
-    public BookService(BookRepository bookRepository) {
+    public BookService(BookRepository bookRepository, BookDAO bookDAO, BookSearchIndex bookSearchIndex,
+                       SecondLevelCache secondLevelCache, ChangeVersions changeVersions,
+                       LoanHistory loanHistory, LoanEventDAO loanEventDAO) {
         this.bookRepository = bookRepository;
+        this.bookDAO = bookDAO;
+        this.bookSearchIndex = bookSearchIndex;
+        this.secondLevelCache = secondLevelCache;
+        this.changeVersions = changeVersions;
+        this.loanHistory = loanHistory;
+        this.loanEventDAO = loanEventDAO;
     }
 
     // Сортировка
@@ -34,10 +72,22 @@ public class BookService {
 
     // Пагинация
     public List<Book> findWithPagination(Integer page, Integer booksPerPage, boolean sortByYear) {
+        Sort sort = sortByYear ? Sort.by("year", "id") : Sort.by("id");
+        return bookRepository.findAllBy(PageRequest.of(page, booksPerPage, sort)).getContent();
+    }
+
+    /**
+     * Keyset-пагинация: вместо OFFSET ищем книги строго после ключа из курсора,
+     * поэтому время ответа не зависит от номера страницы.
+     * Slice не выполняет count(*), а лишь проверяет наличие следующей порции.
+     */
+    public Slice<Book> findAfter(BookCursor cursor, int booksPerPage, boolean sortByYear) {
+        PageRequest limit = PageRequest.of(0, booksPerPage);
+
         if (sortByYear)
-            return bookRepository.findAll(PageRequest.of(page, booksPerPage, Sort.by("year"))).getContent();
+            return bookRepository.findNextByYear(cursor.getYear(), cursor.getId(), limit);
         else
-            return bookRepository.findAll();
+            return bookRepository.findNextById(cursor.getId(), limit);
     }
 
     public Book show(int id) {
@@ -47,6 +97,8 @@ public class BookService {
     @Transactional
     public void save(Book book) {
         bookRepository.save(book);
+        bookSearchIndex.put(book);
+        changeVersions.changed(ChangeVersions.Aggregate.BOOKS);
     }
 
     /**
@@ -60,51 +112,165 @@ public class BookService {
         updateBook.setId(id);
         // чтобы не терялась связь при обновлении
         updateBook.setOwner(bookToUpdate.getOwner());
+        updateBook.setDateTakeBook(bookToUpdate.getDateTakeBook());
+        // version приходит из формы: если книгу успели изменить, merge бросит ObjectOptimisticLockingFailureException
 
         bookRepository.save(updateBook);
+        bookSearchIndex.put(updateBook);
+        changeVersions.changed(ChangeVersions.Aggregate.BOOKS);
     }
+
     @Transactional
     public void delete(int id) {
-        bookRepository.deleteById(id);
+        bookRepository.findById(id).ifPresent(book -> {
+            secondLevelCache.evictBooksOf(book.getOwner());
+            bookRepository.delete(book);
+        });
+        bookSearchIndex.remove(id);
+        changeVersions.changed(ChangeVersions.Aggregate.BOOKS);
     }
 
     /**
-     * Returns null if book has no owner
-     * Здесь Hibernate.initialize() не нужен, так как владелец (сторона One) загружается не лениво
+     * Книга вместе с владельцем одним запросом (граф "Book.owner"), null если не найдена
      * */
-    public Person getBookOwner(int bookId) {
-        return bookRepository.findById(bookId)
-                .map(Book::getOwner)
-                .orElse(null);
+    public Book showWithOwner(int id) {
+        return bookRepository.findWithOwnerById(id).orElse(null);
     }
 
     /**
      * метод вызывается, когда человек возвращает книгу в библиотеку
+     * Один условный UPDATE вместо select + update; новую версию книги для истории возвращает он же.
+     * UPDATE идет мимо Hibernate, поэтому регионы Book и Person.books второго уровня кэша сбрасываются явно
+     *
+     * @return false, если книга уже свободна (или не найдена)
      * */
     @Transactional
-    public void release(int id) {
-        bookRepository.findById(id).ifPresent(
-                book -> {
-                    book.setOwner(null);
-                    book.setDateTakeBook(null);
-                });
+    public boolean release(int id) {
+        List<BookVersion> released = bookDAO.release(Collections.singletonList(id));
+        if (released.isEmpty())
+            return false;
+
+        bookSearchIndex.setOwner(id, null);
+        secondLevelCache.evictBooksAfterCommit();
+        changeVersions.changed(ChangeVersions.Aggregate.BOOKS);
+        loanHistory.returned(released);
+        return true;
     }
 
     /**
      * метод вызывается, когда человек забирает книгу из библиотеки
+     * Книга назначается, только если она свободна (... WHERE id = ? AND person_id IS NULL),
+     * поэтому из двух одновременных выдач одной книги успешна только одна
+     *
+     * @return false, если книгу уже кто-то взял (или она не найдена)
+     * */
+    @Transactional
+    public boolean assign(int id, Person selectedPerson) {
+        List<BookVersion> assigned =
+                bookDAO.assign(Collections.singletonList(id), selectedPerson.getPersonId(), new Date());
+        if (assigned.isEmpty())
+            return false;
+
+        bookSearchIndex.setOwner(id, selectedPerson.getPersonId());
+        secondLevelCache.evictBooksAfterCommit();
+        changeVersions.changed(ChangeVersions.Aggregate.BOOKS);
+        loanHistory.taken(assigned, selectedPerson.getPersonId());
+        return true;
+    }
+
+    /**
+     * Выдача пачки книг одному человеку: блокирующий SELECT состояния и один UPDATE на всю пачку,
+     * независимо от числа книг
+     *
+     * @return результат по каждой книге в порядке bookIds
      * */
     @Transactional
-    public void assign(int id, Person selectedPerson) {
-        bookRepository.findById(id).ifPresent(
-                book -> {
-                    book.setOwner(selectedPerson);
-                    book.setDateTakeBook(new Date());
-                }
-        );
+    public Map<Integer, LoanOutcome> assignAll(Collection<Integer> bookIds, Person selectedPerson) {
+        Map<Integer, LoanOutcome> outcomes = new LinkedHashMap<>();
+        List<Integer> free = new ArrayList<>();
+        Map<Integer, Integer> owners = lockOwners(bookIds);
+
+        for (Integer id : bookIds) {
+            if (!owners.containsKey(id))
+                outcomes.put(id, LoanOutcome.NOT_FOUND);
+            else if (owners.get(id) != null)
+                outcomes.put(id, LoanOutcome.ALREADY_TAKEN);
+            else if (outcomes.putIfAbsent(id, LoanOutcome.DONE) == null)
+                free.add(id);
+        }
+
+        if (!free.isEmpty()) {
+            List<BookVersion> assigned = bookDAO.assign(free, selectedPerson.getPersonId(), new Date());
+            for (Integer id : free)
+                bookSearchIndex.setOwner(id, selectedPerson.getPersonId());
+            secondLevelCache.evictBooksAfterCommit();
+            changeVersions.changed(ChangeVersions.Aggregate.BOOKS);
+            loanHistory.taken(assigned, selectedPerson.getPersonId());
+        }
+        return outcomes;
+    }
+
+    /**
+     * Возврат пачки книг: как assignAll, один UPDATE на всю пачку
+     *
+     * @return результат по каждой книге в порядке bookIds
+     * */
+    @Transactional
+    public Map<Integer, LoanOutcome> releaseAll(Collection<Integer> bookIds) {
+        Map<Integer, LoanOutcome> outcomes = new LinkedHashMap<>();
+        List<Integer> taken = new ArrayList<>();
+        Map<Integer, Integer> owners = lockOwners(bookIds);
+
+        for (Integer id : bookIds) {
+            if (!owners.containsKey(id))
+                outcomes.put(id, LoanOutcome.NOT_FOUND);
+            else if (owners.get(id) == null)
+                outcomes.put(id, LoanOutcome.ALREADY_FREE);
+            else if (outcomes.putIfAbsent(id, LoanOutcome.DONE) == null)
+                taken.add(id);
+        }
+
+        if (!taken.isEmpty()) {
+            List<BookVersion> released = bookDAO.release(taken);
+            for (Integer id : taken)
+                bookSearchIndex.setOwner(id, null);
+            secondLevelCache.evictBooksAfterCommit();
+            changeVersions.changed(ChangeVersions.Aggregate.BOOKS);
+            loanHistory.returned(released);
+        }
+        return outcomes;
+    }
+
+    /**
+     * История выдачи книги, последние выдачи - первыми; beforeId - курсор (id последней записи предыдущей страницы).
+     * История пишется в фоне (LoanHistory), поэтому только что выданная книга появляется в ней с задержкой
+     */
+    public List<LoanRecord> getLoanHistory(int bookId, long beforeId, int limit) {
+        return loanEventDAO.findLoansOfBook(bookId, beforeId, limit);
     }
 
+    // id книги -> id владельца (null, если свободна); строки заблокированы до конца транзакции
+    private Map<Integer, Integer> lockOwners(Collection<Integer> bookIds) {
+        Map<Integer, Integer> owners = new HashMap<>();
+        if (!bookIds.isEmpty())
+            for (Object[] row : bookRepository.lockOwners(bookIds))
+                owners.put((Integer) row[0], (Integer) row[1]);
+        return owners;
+    }
+
+    /**
+     * Поиск по префиксам слов названия и автора выполняется в памяти (BookSearchIndex),
+     * без запроса к БД. Пустой запрос ничего не находит.
+     * Транзакция (а с ней соединение из пула) здесь не нужна.
+     * Пока индекс строится в фоне (library.fast_start), ищется начало названия запросом к БД
+     * */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public List<Book> searchByTitle(String title) {
-       return bookRepository.findAllByTitleStartingWith(title);
+        if (!bookSearchIndex.isReady())
+            return title == null || title.trim().isEmpty()
+                    ? Collections.emptyList()
+                    : bookRepository.findAllByTitleStartingWith(title.trim());
+        return bookSearchIndex.search(title, BookSearchIndex.DEFAULT_LIMIT);
     }
 
 }
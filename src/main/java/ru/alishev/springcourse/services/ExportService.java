@@ -0,0 +1,125 @@
+package ru.alishev.springcourse.services;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import ru.alishev.springcourse.dao.BookDAO;
+import ru.alishev.springcourse.dao.PersonDAO;
+import ru.alishev.springcourse.util.CsvWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Выгрузка каталога в CSV или JSON.
+ * <p>
+ * Строки читаются курсором БД (library.export.fetch_size) и сразу пишутся в ответ,
+ * поэтому расход памяти не зависит от размера таблицы.
+ */
+@Service
+@Transactional(readOnly = true)
+public class ExportService {
+
+    public static final String CSV = "csv";
+    public static final String JSON = "json";
+
+    private final BookDAO bookDAO;
+    private final PersonDAO personDAO;
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final int fetchSize;
+
+    @Autowired
+    public ExportService(BookDAO bookDAO, PersonDAO personDAO, Environment environment) {
+        this.bookDAO = bookDAO;
+        this.personDAO = personDAO;
+        this.fetchSize = environment.getProperty("library.export.fetch_size", Integer.class, 1000);
+    }
+
+    public static boolean isSupported(String format) {
+        return CSV.equals(format) || JSON.equals(format);
+    }
+
+    public void exportBooks(String format, OutputStream out) throws IOException {
+        if (JSON.equals(format)) {
+            JsonGenerator json = jsonFactory.createGenerator(out, JsonEncoding.UTF8);
+            json.writeStartArray();
+            bookDAO.forEachBook(fetchSize, rs -> unchecked(() -> {
+                json.writeStartObject();
+                json.writeNumberField("id", rs.getInt("id"));
+                json.writeStringField("title", rs.getString("title"));
+                json.writeStringField("author", rs.getString("author"));
+                json.writeNumberField("year", rs.getInt("year"));
+                int personId = rs.getInt("person_id");
+                if (rs.wasNull())
+                    json.writeNullField("personId");
+                else
+                    json.writeNumberField("personId", personId);
+                json.writeStringField("dateTakeBook", format(rs.getTimestamp("date_take_book")));
+                json.writeEndObject();
+            }));
+            json.writeEndArray();
+            json.flush();
+        } else {
+            CsvWriter csv = csvWriter(out);
+            csv.writeRow("id", "title", "author", "year", "person_id", "date_take_book");
+            bookDAO.forEachBook(fetchSize, rs -> unchecked(() -> csv.writeRow(
+                    rs.getInt("id"), rs.getString("title"), rs.getString("author"), rs.getInt("year"),
+                    rs.getObject("person_id"), format(rs.getTimestamp("date_take_book")))));
+            csv.flush();
+        }
+    }
+
+    public void exportPeople(String format, OutputStream out) throws IOException {
+        if (JSON.equals(format)) {
+            JsonGenerator json = jsonFactory.createGenerator(out, JsonEncoding.UTF8);
+            json.writeStartArray();
+            personDAO.forEachPerson(fetchSize, rs -> unchecked(() -> {
+                json.writeStartObject();
+                json.writeNumberField("personId", rs.getInt("person_id"));
+                json.writeStringField("fullName", rs.getString("full_name"));
+                json.writeNumberField("yearOfBirth", rs.getInt("year_of_birth"));
+                json.writeEndObject();
+            }));
+            json.writeEndArray();
+            json.flush();
+        } else {
+            CsvWriter csv = csvWriter(out);
+            csv.writeRow("person_id", "full_name", "year_of_birth");
+            personDAO.forEachPerson(fetchSize, rs -> unchecked(() -> csv.writeRow(
+                    rs.getInt("person_id"), rs.getString("full_name"), rs.getInt("year_of_birth"))));
+            csv.flush();
+        }
+    }
+
+    private static CsvWriter csvWriter(OutputStream out) {
+        return new CsvWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+    }
+
+    private static String format(Timestamp timestamp) {
+        return timestamp == null ? null : timestamp.toLocalDateTime().toString();
+    }
+
+    // RowCallbackHandler не может бросать IOException
+    private static void unchecked(RowWriter writer) throws SQLException {
+        try {
+            writer.write();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowWriter {
+        void write() throws IOException, SQLException;
+    }
+}
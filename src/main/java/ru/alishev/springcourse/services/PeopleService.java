@@ -1,52 +1,174 @@
 package ru.alishev.springcourse.services;
 
 
-import org.hibernate.Hibernate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import ru.alishev.springcourse.dao.BookDAO;
+import ru.alishev.springcourse.dao.LoanEventDAO;
+import ru.alishev.springcourse.dto.LoanRecord;
+import ru.alishev.springcourse.dto.OverdueLoan;
+import ru.alishev.springcourse.dto.PersonLoanSummary;
+import ru.alishev.springcourse.dto.PersonName;
+import ru.alishev.springcourse.repositories.BookRepository;
 import ru.alishev.springcourse.models.Book;
 import ru.alishev.springcourse.models.Person;
 import ru.alishev.springcourse.repositories.PeopleRepository;
+import ru.alishev.springcourse.util.BookSearchIndex;
+import ru.alishev.springcourse.util.ChangeVersions;
+import ru.alishev.springcourse.util.LoanHistory;
+import ru.alishev.springcourse.util.PersonNameFilter;
+import ru.alishev.springcourse.util.SecondLevelCache;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 @Service
 @Transactional(readOnly = true)
 public class PeopleService {
 
+    // сколько читателей предлагать при выборе (страница книги, выдача пачки, /api/people/lookup)
+    public static final int LOOKUP_LIMIT = 20;
+    public static final int MAX_LOOKUP_LIMIT = 100;
+
     private final PeopleRepository peopleRepository;
+    private final BookRepository bookRepository;
+    private final BookDAO bookDAO;
+    private final LoanEventDAO loanEventDAO;
+    private final LoanHistory loanHistory;
+    private final BookSearchIndex bookSearchIndex;
+    private final SecondLevelCache secondLevelCache;
+    private final PersonNameFilter personNameFilter;
+    private final ChangeVersions changeVersions;
+    // срок, после которого книга считается просроченной
+    private final long loanPeriodMillis;
 
     @Autowired
-    public PeopleService(PeopleRepository peopleRepository) {
+    public PeopleService(PeopleRepository peopleRepository, BookRepository bookRepository, BookDAO bookDAO,
+                         BookSearchIndex bookSearchIndex, SecondLevelCache secondLevelCache,
+                         PersonNameFilter personNameFilter, ChangeVersions changeVersions,
+                         LoanEventDAO loanEventDAO, LoanHistory loanHistory, Environment environment) {
         this.peopleRepository = peopleRepository;
+        this.bookRepository = bookRepository;
+        this.bookDAO = bookDAO;
+        this.bookSearchIndex = bookSearchIndex;
+        this.secondLevelCache = secondLevelCache;
+        this.personNameFilter = personNameFilter;
+        this.changeVersions = changeVersions;
+        this.loanEventDAO = loanEventDAO;
+        this.loanHistory = loanHistory;
+        this.loanPeriodMillis = TimeUnit.DAYS.toMillis(
+                environment.getProperty("library.loan_period_days", Long.class, 10L));
+    }
+
+    /**
+     * Первые limit людей, чье ФИО начинается с prefix (без учета регистра), по алфавиту;
+     * без prefix - первые по алфавиту. Загружаются только id и ФИО
+     */
+    public List<PersonName> lookup(String prefix, int limit) {
+        return peopleRepository.findNamesByPrefix(prefix == null ? "" : prefix.trim(), PageRequest.of(0, limit));
+    }
+
+    /**
+     * Страница списка людей с числом взятых и просроченных книг.
+     * Граница просрочки округляется до минуты, чтобы результат брался из кэша запросов
+     */
+    public Slice<PersonLoanSummary> findAllWithLoanCounts(int page, int peoplePerPage) {
+        long overdueBefore = System.currentTimeMillis() - loanPeriodMillis;
+        overdueBefore -= overdueBefore % TimeUnit.MINUTES.toMillis(1);
+        return peopleRepository.findAllWithLoanCounts(new Date(overdueBefore), PageRequest.of(page, peoplePerPage));
+    }
+
+    /**
+     * Все просроченные книги библиотеки с владельцами, самые давние - первыми (см. OverdueReport)
+     */
+    public List<OverdueLoan> findOverdueLoans() {
+        long now = System.currentTimeMillis();
+        List<OverdueLoan> loans = bookRepository.findAllOverdue(new Date(now - loanPeriodMillis));
+        for (OverdueLoan loan : loans)
+            loan.setDaysOverdue(TimeUnit.MILLISECONDS.toDays(now - loanPeriodMillis - loan.getDateTakeBook().getTime()));
+        return loans;
     }
 
-    public List<Person> findAll() {
-        return peopleRepository.findAllByOrderByFullName();
+    /**
+     * Keyset-пагинация по id: люди с id больше afterId
+     */
+    public Slice<Person> findAfter(int afterId, int limit) {
+        return peopleRepository.findByPersonIdGreaterThanOrderByPersonId(afterId, PageRequest.of(0, limit));
     }
 
     public Person findOne(int id) {
         return peopleRepository.findById(id).orElse(null);
     }
 
+    /**
+     * Человек вместе с книгами (одним запросом) и признаком просрочки у каждой книги;
+     * null, если такого человека нет. Просрочка вычисляется в запросе, возвращаются проекции -
+     * управляемые сущности не загружаются и не меняются
+     */
+    public Person findWithBooks(int id) {
+        Date overdueBefore = new Date(System.currentTimeMillis() - loanPeriodMillis);
+        List<Object[]> rows = peopleRepository.findWithBooksById(id, overdueBefore);
+        if (rows.isEmpty())
+            return null;
+
+        Object[] first = rows.get(0);
+        Person person = new Person((String) first[1], (Integer) first[2]);
+        person.setPersonId((Integer) first[0]);
+
+        List<Book> books = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            if (row[3] != null)
+                books.add(new Book((Integer) row[3], (String) row[4], (String) row[5], (Integer) row[6],
+                        (Date) row[7], (Boolean) row[8]));
+        }
+        person.setBooks(books);
+        return person;
+    }
+
+    /**
+     * Книги, которые человек брал, последние - первыми (см. BookService.getLoanHistory)
+     */
+    public List<LoanRecord> getLoanHistory(int personId, long beforeId, int limit) {
+        return loanEventDAO.findLoansOfPerson(personId, beforeId, limit);
+    }
+
     @Transactional(readOnly = false)
     public void save(Person person) {
         peopleRepository.save(person);
+        personNameFilter.add(person.getFullName());
+        bookSearchIndex.putPerson(person);
+        changeVersions.changed(ChangeVersions.Aggregate.PEOPLE);
     }
 
     @Transactional
     public void update(int id, Person updatePerson) {
         updatePerson.setPersonId(id);
         peopleRepository.save(updatePerson);
+        personNameFilter.add(updatePerson.getFullName());
+        // у updatePerson нет коллекции книг - кэш коллекции не должен ее запомнить
+        secondLevelCache.evictBooksOf(updatePerson);
+        bookSearchIndex.putPerson(updatePerson);
+        changeVersions.changed(ChangeVersions.Aggregate.PEOPLE);
     }
 
     @Transactional
     public void delete(int id) {
+        // книги возвращаются одним UPDATE до удаления (его же новые версии идут в историю),
+        // внешнему ключу (ON DELETE SET NULL) освобождать уже нечего
+        loanHistory.returned(bookDAO.releaseAllOf(id));
         peopleRepository.deleteById(id);
+        secondLevelCache.evictAllBooks();
+        bookSearchIndex.removePerson(id);
+        // книги удаленного человека освобождаются
+        changeVersions.changed(ChangeVersions.Aggregate.PEOPLE);
+        changeVersions.changed(ChangeVersions.Aggregate.BOOKS);
     }
 
     // Для валидации уникальности ФИО
@@ -54,28 +176,11 @@ public class PeopleService {
         return peopleRepository.findPersonByFullName(fullName);
     }
 
-    public List<Book> getBooksByPersonId(int id) {
-        Optional<Person> person = peopleRepository.findById(id);
-
-        if (person.isPresent()) {
-            Hibernate.initialize(person.get().getBooks());
-            // Мы внизу итерируемся по книгам, поэтому они точно будут загружены, но на всякий случай
-            // не мешает всегда вызывать Hibernate.initialize()
-            // (на случай, например, если код в дальнейшем поменяется и итерация по книгам удалится)
-
-            // Проверка просроченности книг
-            person.get().getBooks().forEach(book -> {
-                long diffInMillisecond =
-                        Math.abs(book.getDateTakeBook().getTime() - new Date().getTime());
-                // 864000000 милисекунд = 10 суток
-                if (diffInMillisecond > 864000000) {
-                    book.setOverdue(true);
-                }
-            });
-
-            return person.get().getBooks();
-        } else {
-            return Collections.emptyList();
-        }
+    /**
+     * Для валидации уникальности ФИО: новое имя отсекается PersonNameFilter без запроса к БД,
+     * запрос выполняется, только если такое имя, возможно, уже есть
+     */
+    public boolean existsByFullName(String fullName) {
+        return personNameFilter.mightContain(fullName) && getPersonByFullName(fullName).isPresent();
     }
 }
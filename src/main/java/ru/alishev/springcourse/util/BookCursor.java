@@ -0,0 +1,57 @@
+package ru.alishev.springcourse.util;
+
+import ru.alishev.springcourse.models.Book;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Непрозрачный курсор для keyset-пагинации книг.
+ * Хранит ключ последней показанной книги: (year, id) при сортировке по году или только id.
+ */
+public class BookCursor {
+
+    // курсор первой страницы - меньше любого реального ключа
+    public static final BookCursor FIRST = new BookCursor(Integer.MIN_VALUE, Integer.MIN_VALUE);
+
+    private final int year;
+    private final int id;
+
+    public BookCursor(int year, int id) {
+        this.year = year;
+        this.id = id;
+    }
+
+    public static BookCursor after(Book book) {
+        return new BookCursor(book.getYear(), book.getId());
+    }
+
+    public int getYear() {
+        return year;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String encode() {
+        String raw = year + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException если курсор поврежден
+     */
+    public static BookCursor decode(String cursor) {
+        if (cursor == null || cursor.isEmpty())
+            return FIRST;
+
+        String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        int separator = raw.indexOf(':');
+        if (separator < 0)
+            throw new IllegalArgumentException("Некорректный курсор: " + cursor);
+
+        return new BookCursor(Integer.parseInt(raw.substring(0, separator)),
+                Integer.parseInt(raw.substring(separator + 1)));
+    }
+}
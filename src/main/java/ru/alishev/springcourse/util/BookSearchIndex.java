@@ -0,0 +1,292 @@
+package ru.alishev.springcourse.util;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.alishev.springcourse.models.Book;
+import ru.alishev.springcourse.models.Person;
+import ru.alishev.springcourse.repositories.BookRepository;
+import ru.alishev.springcourse.repositories.PeopleRepository;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+
+/**
+ * Поисковый индекс книг в памяти.
+ * <p>
+ * Слова названия и автора (после нормализации) хранятся в отсортированной карте,
+ * поэтому поиск по префиксу - это обход subMap без обращения к БД.
+ * Поиск не зависит от регистра и диакритики (é = e, ё = е).
+ * <p>
+ * BookService и PeopleService обновляют индекс после коммита транзакции.
+ */
+@Component
+public class BookSearchIndex {
+
+    public static final int DEFAULT_LIMIT = 50;
+
+    // все диакритические знаки, кроме краткой (чтобы "й" не превращалась в "и")
+    private static final Pattern DIACRITICS = Pattern.compile("[\\p{M}&&[^\\u0306]]");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final BookRepository bookRepository;
+    private final PeopleRepository peopleRepository;
+    private final StartupTasks startupTasks;
+    private volatile boolean ready;
+
+    // нормализованное слово -> id книг
+    private final ConcurrentSkipListMap<String, Set<Integer>> tokens = new ConcurrentSkipListMap<>();
+    private final Map<Integer, Document> documents = new ConcurrentHashMap<>();
+    // имена читателей нужны, чтобы показывать владельца книги в результатах поиска
+    private final Map<Integer, String> ownerNames = new ConcurrentHashMap<>();
+
+    @Autowired
+    public BookSearchIndex(BookRepository bookRepository, PeopleRepository peopleRepository,
+                           StartupTasks startupTasks) {
+        this.bookRepository = bookRepository;
+        this.peopleRepository = peopleRepository;
+        this.startupTasks = startupTasks;
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void onStartup() {
+        startupTasks.run("book-search-index", this::rebuild);
+    }
+
+    // false, пока индекс не построен при запуске (library.fast_start)
+    public boolean isReady() {
+        return ready;
+    }
+
+    public synchronized void rebuild() {
+        tokens.clear();
+        documents.clear();
+        ownerNames.clear();
+
+        peopleRepository.findAll().forEach(person -> ownerNames.put(person.getPersonId(), person.getFullName()));
+        bookRepository.findAllWithOwner().forEach(this::doPut);
+        ready = true;
+    }
+
+    public void put(Book book) {
+        Document document = new Document(book.getId(), book.getTitle(), book.getAuthor(), book.getYear(),
+                book.getOwner() == null ? null : book.getOwner().getPersonId());
+        afterCommit(() -> doPut(document));
+    }
+
+    public void remove(int bookId) {
+        afterCommit(() -> doRemove(bookId));
+    }
+
+    public void setOwner(int bookId, Integer personId) {
+        afterCommit(() -> {
+            synchronized (this) {
+                Document document = documents.get(bookId);
+                if (document != null)
+                    documents.put(bookId, document.withOwner(personId));
+            }
+        });
+    }
+
+    public void putPerson(Person person) {
+        int personId = person.getPersonId();
+        String fullName = person.getFullName();
+        afterCommit(() -> ownerNames.put(personId, fullName));
+    }
+
+    // в БД книги удаленного человека освобождаются (person_id = null)
+    public void removePerson(int personId) {
+        afterCommit(() -> {
+            synchronized (this) {
+                ownerNames.remove(personId);
+                documents.replaceAll((id, document) ->
+                        Objects.equals(document.ownerId, personId) ? document.withOwner(null) : document);
+            }
+        });
+    }
+
+    public List<Book> search(String query, int limit) {
+        String normalizedQuery = normalize(query);
+        String[] queryTokens = tokenize(normalizedQuery);
+        if (queryTokens.length == 0 || limit <= 0)
+            return Collections.emptyList();
+
+        // кандидаты - книги, у которых есть слово с префиксом первого слова запроса
+        Set<Integer> candidates = new HashSet<>();
+        String first = queryTokens[0];
+        tokens.subMap(first, true, first + Character.MAX_VALUE, true)
+                .values().forEach(candidates::addAll);
+
+        List<Match> matches = new ArrayList<>();
+        for (Integer id : candidates) {
+            Document document = documents.get(id);
+            if (document == null)
+                continue;
+
+            int score = document.score(normalizedQuery, queryTokens);
+            if (score > 0)
+                matches.add(new Match(document, score));
+        }
+
+        matches.sort(Comparator.comparingInt((Match match) -> match.score).reversed()
+                .thenComparing(match -> match.document.normalizedTitle)
+                .thenComparingInt(match -> match.document.id));
+
+        List<Book> result = new ArrayList<>(Math.min(limit, matches.size()));
+        for (Match match : matches) {
+            if (result.size() == limit)
+                break;
+            result.add(match.document.toBook(ownerNames));
+        }
+        return result;
+    }
+
+    private synchronized void doPut(Book book) {
+        doPut(new Document(book.getId(), book.getTitle(), book.getAuthor(), book.getYear(),
+                book.getOwner() == null ? null : book.getOwner().getPersonId()));
+        if (book.getOwner() != null && book.getOwner().getFullName() != null)
+            ownerNames.put(book.getOwner().getPersonId(), book.getOwner().getFullName());
+    }
+
+    private synchronized void doPut(Document document) {
+        doRemove(document.id);
+        documents.put(document.id, document);
+        for (String token : document.allTokens())
+            tokens.computeIfAbsent(token, key -> ConcurrentHashMap.newKeySet()).add(document.id);
+    }
+
+    private synchronized void doRemove(int bookId) {
+        Document old = documents.remove(bookId);
+        if (old == null)
+            return;
+
+        for (String token : old.allTokens()) {
+            Set<Integer> ids = tokens.get(token);
+            if (ids != null) {
+                ids.remove(bookId);
+                if (ids.isEmpty())
+                    tokens.remove(token);
+            }
+        }
+    }
+
+    // изменения применяются только после успешного коммита, чтобы откат не испортил индекс
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    static String normalize(String text) {
+        if (text == null)
+            return "";
+
+        String lower = text.toLowerCase(Locale.ROOT).replace('ё', 'е');
+        String stripped = DIACRITICS.matcher(Normalizer.normalize(lower, Normalizer.Form.NFD)).replaceAll("");
+        return Normalizer.normalize(stripped, Normalizer.Form.NFC).trim();
+    }
+
+    private static String[] tokenize(String normalized) {
+        if (normalized.isEmpty())
+            return new String[0];
+        return Arrays.stream(SEPARATORS.split(normalized))
+                .filter(token -> !token.isEmpty())
+                .toArray(String[]::new);
+    }
+
+    private static boolean anyStartsWith(String[] words, String prefix) {
+        for (String word : words)
+            if (word.startsWith(prefix))
+                return true;
+        return false;
+    }
+
+    private static final class Document {
+        private final int id;
+        private final String title;
+        private final String author;
+        private final int year;
+        private final Integer ownerId;
+
+        private final String normalizedTitle;
+        private final String[] titleTokens;
+        private final String[] authorTokens;
+
+        private Document(int id, String title, String author, int year, Integer ownerId) {
+            this.id = id;
+            this.title = title;
+            this.author = author;
+            this.year = year;
+            this.ownerId = ownerId;
+            this.normalizedTitle = normalize(title);
+            this.titleTokens = tokenize(normalizedTitle);
+            this.authorTokens = tokenize(normalize(author));
+        }
+
+        private Document withOwner(Integer ownerId) {
+            return new Document(id, title, author, year, ownerId);
+        }
+
+        private Set<String> allTokens() {
+            Set<String> all = new HashSet<>(Arrays.asList(titleTokens));
+            all.addAll(Arrays.asList(authorTokens));
+            return all;
+        }
+
+        /**
+         * 3 - название начинается с запроса,
+         * 2 - все слова запроса являются префиксами слов названия,
+         * 1 - все слова запроса найдены в названии или авторе,
+         * 0 - не подходит
+         */
+        private int score(String normalizedQuery, String[] queryTokens) {
+            if (normalizedTitle.startsWith(normalizedQuery))
+                return 3;
+
+            boolean onlyTitle = true;
+            for (String queryToken : queryTokens) {
+                if (anyStartsWith(titleTokens, queryToken))
+                    continue;
+                if (!anyStartsWith(authorTokens, queryToken))
+                    return 0;
+                onlyTitle = false;
+            }
+            return onlyTitle ? 2 : 1;
+        }
+
+        // отсоединенная копия книги для представления
+        private Book toBook(Map<Integer, String> ownerNames) {
+            Book book = new Book(title, author, year);
+            book.setId(id);
+            if (ownerId != null) {
+                Person owner = new Person(ownerNames.get(ownerId), 0);
+                owner.setPersonId(ownerId);
+                book.setOwner(owner);
+            }
+            return book;
+        }
+    }
+
+    private static final class Match {
+        private final Document document;
+        private final int score;
+
+        private Match(Document document, int score) {
+            this.document = document;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package ru.alishev.springcourse.util;
+
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Отсек (bulkhead) для дорогих обработчиков: не больше library.bulkhead.&lt;kind&gt; запросов одного вида
+ * одновременно. Лишний запрос ждет место не дольше library.bulkhead.max_wait_ms и получает 503 с Retry-After,
+ * а не очередь без конца - потоки и соединения остаются дешевым запросам (например, /books/{id}).
+ * В режиме library.request_executor=platform у отсека свой пул потоков (см. RequestExecutor)
+ */
+public class Bulkhead {
+
+    public enum Kind {
+        // списки книг и людей
+        LIST,
+        // поиск книг
+        SEARCH,
+        // выгрузка всех книг или людей
+        EXPORT,
+        // импорт книг из CSV
+        IMPORT,
+        // выдача и возврат пачки книг
+        BATCH
+    }
+
+    private final Kind kind;
+    private final int maxConcurrent;
+    private final Semaphore permits;
+    private final long maxWaitMillis;
+    private final long retryAfterSeconds;
+    // null - обработчики выполняются общим исполнителем RequestExecutor
+    private final AsyncTaskExecutor taskExecutor;
+    private final LongAdder rejected = new LongAdder();
+
+    public Bulkhead(Kind kind, int maxConcurrent, long maxWaitMillis, long retryAfterSeconds,
+                    AsyncTaskExecutor taskExecutor) {
+        this.kind = kind;
+        this.maxConcurrent = maxConcurrent;
+        this.permits = new Semaphore(maxConcurrent);
+        this.maxWaitMillis = maxWaitMillis;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * Занимает место в отсеке; освобождается через Permit.close()
+     *
+     * @throws FullException если места не появилось за library.bulkhead.max_wait_ms
+     */
+    public Permit enter() throws InterruptedException {
+        if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+            rejected.increment();
+            throw new FullException(kind, retryAfterSeconds);
+        }
+        return new Permit();
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public AsyncTaskExecutor getTaskExecutor() {
+        return taskExecutor;
+    }
+
+    public int getInFlight() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Место в отсеке; повторный close() ничего не делает
+     */
+    public class Permit implements AutoCloseable {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true))
+                permits.release();
+        }
+    }
+
+    /**
+     * 503 Service Unavailable с заголовком Retry-After
+     */
+    public static class FullException extends ResponseStatusException {
+        private static final long serialVersionUID = 1L;
+
+        private final long retryAfterSeconds;
+
+        FullException(Kind kind, long retryAfterSeconds) {
+            super(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Слишком много одновременных запросов (" + kind.name().toLowerCase() + "), повторите позже");
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        @Override
+        public HttpHeaders getResponseHeaders() {
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+            return headers;
+        }
+    }
+}
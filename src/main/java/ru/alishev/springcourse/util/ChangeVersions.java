@@ -0,0 +1,100 @@
+package ru.alishev.springcourse.util;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.support.RequestContextUtils;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Счетчики изменений книг и людей для условных GET (ETag / Last-Modified).
+ * <p>
+ * BookService и PeopleService увеличивают счетчик после коммита, контроллер читает его
+ * до запросов к БД: если у клиента та же версия, сразу отвечаем 304 без запросов и Thymeleaf.
+ * Счетчики начинаются со времени запуска, чтобы ETag не повторялись после перезапуска.
+ * Работает в пределах одного экземпляра приложения.
+ * <p>
+ * Время последнего изменения, от которого зависит ETag страницы, остается в атрибуте запроса
+ * MODIFIED_ATTRIBUTE: страницу с ETag свежего изменения ReadWriteRoutingDataSource читает с основной БД,
+ * иначе отстающая реплика отдала бы старые данные под новым ETag, и клиент получал бы на них 304.
+ */
+@Component
+public class ChangeVersions {
+
+    public enum Aggregate {
+        BOOKS, PEOPLE
+    }
+
+    public static final String MODIFIED_ATTRIBUTE = ChangeVersions.class.getName() + ".modified";
+
+    private final AtomicLongArray versions = new AtomicLongArray(Aggregate.values().length);
+    private final AtomicLongArray lastModified = new AtomicLongArray(Aggregate.values().length);
+
+    public ChangeVersions() {
+        long now = System.currentTimeMillis();
+        for (Aggregate aggregate : Aggregate.values()) {
+            versions.set(aggregate.ordinal(), now);
+            lastModified.set(aggregate.ordinal(), now);
+        }
+    }
+
+    public void changed(Aggregate aggregate) {
+        Runnable bump = () -> {
+            versions.incrementAndGet(aggregate.ordinal());
+            lastModified.set(aggregate.ordinal(), System.currentTimeMillis());
+        };
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    bump.run();
+                }
+            });
+        } else {
+            bump.run();
+        }
+    }
+
+    /**
+     * Ставит ETag и Last-Modified по версиям страниц, от которых зависит страница.
+     *
+     * @return true, если клиенту отправлен 304 и страницу строить не нужно
+     */
+    public boolean checkNotModified(ServletWebRequest request, Aggregate... aggregates) {
+        return checkNotModified(request, 0, aggregates);
+    }
+
+    /**
+     * @param refreshMillis страница зависит еще и от текущего времени (просрочка книг):
+     *                      ETag меняется не реже, чем раз в refreshMillis
+     */
+    public boolean checkNotModified(ServletWebRequest request, long refreshMillis, Aggregate... aggregates) {
+        // одноразовые сообщения после redirect (flash-атрибуты) в кэш не попадают
+        Map<String, ?> flash = RequestContextUtils.getInputFlashMap(request.getRequest());
+        if (flash != null && !flash.isEmpty())
+            return false;
+
+        StringBuilder etag = new StringBuilder("W/\"");
+        long modified = 0;
+        for (Aggregate aggregate : aggregates) {
+            etag.append(Long.toString(versions.get(aggregate.ordinal()), 36)).append('-');
+            modified = Math.max(modified, lastModified.get(aggregate.ordinal()));
+        }
+        request.getRequest().setAttribute(MODIFIED_ATTRIBUTE, modified);
+        if (refreshMillis > 0) {
+            long now = System.currentTimeMillis();
+            etag.append(Long.toString(now / refreshMillis, 36)).append('-');
+            modified = Math.max(modified, now - now % refreshMillis);
+        }
+        etag.setCharAt(etag.length() - 1, '"');
+
+        // браузер должен перепроверять страницу, а не показывать сохраненную копию
+        if (request.getResponse() != null)
+            request.getResponse().setHeader("Cache-Control", "no-cache");
+        return request.checkNotModified(etag.toString(), modified);
+    }
+}
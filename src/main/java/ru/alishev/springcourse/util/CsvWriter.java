@@ -0,0 +1,44 @@
+package ru.alishev.springcourse.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Запись CSV (RFC 4180) построчно; поля с запятыми, кавычками и переводами строк берутся в кавычки.
+ */
+public class CsvWriter {
+
+    private final Writer writer;
+
+    public CsvWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    public void writeRow(Object... values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)
+                writer.write(',');
+            if (values[i] != null)
+                writeField(values[i].toString());
+        }
+        writer.write('\n');
+    }
+
+    private void writeField(String value) throws IOException {
+        boolean needsQuotes = value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+
+        if (!needsQuotes) {
+            writer.write(value);
+            return;
+        }
+
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+}
@@ -0,0 +1,52 @@
+package ru.alishev.springcourse.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Итог массового импорта: сколько записей добавлено и ошибки по строкам.
+ * Хранится не больше MAX_ERRORS ошибок, остальные только считаются.
+ */
+public class ImportReport {
+
+    public static final int MAX_ERRORS = 1000;
+
+    private long imported;
+    private long rejected;
+    private long elapsedMillis;
+    private final List<String> errors = new ArrayList<>();
+
+    public void addImported(long count) {
+        imported += count;
+    }
+
+    public void reject(long line, String message) {
+        rejected++;
+        if (errors.size() < MAX_ERRORS)
+            errors.add("Строка " + line + ": " + message);
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public boolean isErrorsTruncated() {
+        return rejected > errors.size();
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+}
@@ -0,0 +1,82 @@
+package ru.alishev.springcourse.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Гистограмма времени ответа с логарифмическими корзинами (4 корзины на каждую степень двойки,
+ * погрешность квантиля не больше 25%).
+ * <p>
+ * record() не берет блокировок и не создает объектов: только атомарный инкремент корзины.
+ * Квантили считаются при чтении.
+ */
+public class LatencyHistogram {
+
+    // значения в микросекундах от 4 мкс до 2^40 мкс
+    private static final int MIN_EXPONENT = 2;
+    private static final int MAX_EXPONENT = 40;
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKETS = (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+
+    public void record(long micros) {
+        counts.incrementAndGet(bucket(micros));
+        count.increment();
+        sumMicros.add(micros);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSumMicros() {
+        return sumMicros.sum();
+    }
+
+    /**
+     * @param quantile от 0 до 1
+     * @return оценка квантиля в микросекундах (линейная интерполяция внутри корзины)
+     */
+    public double quantileMicros(double quantile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return 0;
+
+        double rank = quantile * total;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (snapshot[i] == 0)
+                continue;
+            if (seen + snapshot[i] >= rank) {
+                double lower = lowerBound(i);
+                double upper = lowerBound(i + 1);
+                return lower + (upper - lower) * (rank - seen) / snapshot[i];
+            }
+            seen += snapshot[i];
+        }
+        return lowerBound(BUCKETS);
+    }
+
+    static int bucket(long micros) {
+        long value = Math.max(micros, 1L << MIN_EXPONENT);
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        int sub = (int) (value >>> (exponent - MIN_EXPONENT)) & (SUB_BUCKETS - 1);
+        if (exponent == MAX_EXPONENT && value >= (1L << (MAX_EXPONENT + 1)))
+            sub = SUB_BUCKETS - 1;
+        return (exponent - MIN_EXPONENT) * SUB_BUCKETS + sub;
+    }
+
+    private static double lowerBound(int bucket) {
+        int exponent = bucket / SUB_BUCKETS + MIN_EXPONENT;
+        int sub = bucket % SUB_BUCKETS;
+        return (double) (SUB_BUCKETS + sub) * (1L << (exponent - MIN_EXPONENT));
+    }
+}
@@ -0,0 +1,177 @@
+package ru.alishev.springcourse.util;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.alishev.springcourse.dao.LoanEventDAO;
+import ru.alishev.springcourse.dto.BookVersion;
+import ru.alishev.springcourse.dto.LoanEvent;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * История выдачи книг (таблица loan_event) с отложенной записью.
+ * <p>
+ * Выдача и возврат не вставляют строку в своей транзакции: после коммита события попадают
+ * в ограниченную очередь, которую отдельный поток пишет в БД пачками (LoanEventDAO.insertBatch)
+ * не чаще раза в library.loan_history.flush_interval_ms.
+ * Если очередь заполнена, поток запроса ждет место не дольше library.loan_history.offer_timeout_ms
+ * на все события своей транзакции, затем оставшиеся события отбрасываются и считаются (getDroppedCount).
+ * При остановке приложения очередь дописывается до конца (не дольше library.loan_history.shutdown_timeout_ms)
+ */
+@Component
+public class LoanHistory implements DisposableBean {
+    private static final Logger log = Logger.getLogger(LoanHistory.class.getName());
+
+    private static final int WRITE_ATTEMPTS = 3;
+
+    private final LoanEventDAO loanEventDAO;
+    private final BlockingQueue<LoanEvent> queue;
+    private final int batchSize;
+    private final long offerTimeoutMillis;
+    private final long flushIntervalMillis;
+    private final long shutdownTimeoutMillis;
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+
+    private volatile boolean closed;
+
+    @Autowired
+    public LoanHistory(LoanEventDAO loanEventDAO, Environment environment) {
+        this.loanEventDAO = loanEventDAO;
+        this.queue = new ArrayBlockingQueue<>(
+                environment.getProperty("library.loan_history.queue_capacity", Integer.class, 10000));
+        this.batchSize = environment.getProperty("library.loan_history.batch_size", Integer.class, 500);
+        this.offerTimeoutMillis = environment.getProperty("library.loan_history.offer_timeout_ms", Long.class, 100L);
+        this.flushIntervalMillis = environment.getProperty("library.loan_history.flush_interval_ms", Long.class, 200L);
+        this.shutdownTimeoutMillis =
+                environment.getProperty("library.loan_history.shutdown_timeout_ms", Long.class, 5000L);
+
+        this.writer = new Thread(this::drain, "loan-history-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * @param books книги с версиями, прочитанными в транзакции выдачи после ее UPDATE
+     */
+    public void taken(List<BookVersion> books, int personId) {
+        Date now = new Date();
+        List<LoanEvent> events = new ArrayList<>(books.size());
+        for (BookVersion book : books)
+            events.add(new LoanEvent(LoanEvent.Type.TAKEN, book.getBookId(), book.getVersion(), personId, now));
+        afterCommit(events);
+    }
+
+    public void returned(List<BookVersion> books) {
+        Date now = new Date();
+        List<LoanEvent> events = new ArrayList<>(books.size());
+        for (BookVersion book : books)
+            events.add(new LoanEvent(LoanEvent.Type.RETURNED, book.getBookId(), book.getVersion(), null, now));
+        afterCommit(events);
+    }
+
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    // откатившаяся выдача в историю не попадает
+    private void afterCommit(List<LoanEvent> events) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(events);
+                }
+            });
+        } else {
+            enqueue(events);
+        }
+    }
+
+    // offer_timeout_ms - на всю пачку событий, а не на каждое: после срока остаток отбрасывается без ожидания
+    private void enqueue(List<LoanEvent> events) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(offerTimeoutMillis);
+        try {
+            for (LoanEvent event : events)
+                if (!queue.offer(event, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS))
+                    dropped.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        List<LoanEvent> batch = new ArrayList<>(batchSize);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                LoanEvent first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+            } catch (InterruptedException e) {
+                // остановка - через closed, очередь дописывается
+                continue;
+            }
+            // за первым событием обычно идут следующие: пачка копится до flush_interval_ms,
+            // а не пишется по одной строке на каждую выдачу (при остановке - без ожидания)
+            if (queue.size() < batchSize - 1 && !closed)
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis));
+            queue.drainTo(batch, batchSize - 1);
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void write(List<LoanEvent> batch) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                loanEventDAO.insertBatch(batch);
+                written.add(batch.size());
+                return;
+            } catch (DataAccessException e) {
+                if (attempt == WRITE_ATTEMPTS || closed) {
+                    dropped.add(batch.size());
+                    log.log(Level.WARNING, "Не удалось записать " + batch.size() + " событий истории выдачи", e);
+                    return;
+                }
+                try {
+                    TimeUnit.SECONDS.sleep(attempt);
+                } catch (InterruptedException ignored) {
+                    // при остановке - сразу следующая попытка
+                }
+            }
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        closed = true;
+        LockSupport.unpark(writer);
+        writer.join(shutdownTimeoutMillis);
+        if (writer.isAlive() || !queue.isEmpty())
+            log.warning("История выдачи: при остановке не записано событий: " + queue.size());
+    }
+}
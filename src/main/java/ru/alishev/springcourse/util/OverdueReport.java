@@ -0,0 +1,109 @@
+package ru.alishev.springcourse.util;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import ru.alishev.springcourse.dto.OverdueLoan;
+import ru.alishev.springcourse.services.PeopleService;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Отчет о просроченных книгах по всей библиотеке.
+ * <p>
+ * Страницы /overdue отдаются из снимка в памяти; снимок раз в library.overdue.refresh_interval мс
+ * пересобирается в фоне одним запросом (см. PeopleService.findOverdueLoans), поэтому цена страницы
+ * не зависит от размера каталога. Выдача и возврат книг попадают в отчет со следующим обновлением
+ */
+@Component
+public class OverdueReport implements DisposableBean {
+    private static final Logger log = Logger.getLogger(OverdueReport.class.getName());
+
+    private final PeopleService peopleService;
+    private final long refreshIntervalMillis;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "overdue-report");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Snapshot snapshot;
+
+    @Autowired
+    public OverdueReport(PeopleService peopleService, Environment environment) {
+        this.peopleService = peopleService;
+        this.refreshIntervalMillis = environment.getProperty("library.overdue.refresh_interval", Long.class, 60000L);
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void onStartup() {
+        scheduler.scheduleWithFixedDelay(this::refresh, 0, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Последний снимок; если фоновое обновление еще ни разу не закончилось - строится сразу
+     */
+    public Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null)
+                    snapshot = build();
+                current = snapshot;
+            }
+        }
+        return current;
+    }
+
+    private void refresh() {
+        try {
+            snapshot = build();
+        } catch (RuntimeException e) {
+            // остается предыдущий снимок, следующая попытка - по расписанию
+            log.log(Level.WARNING, "Не удалось обновить отчет о просрочках", e);
+        }
+    }
+
+    private Snapshot build() {
+        return new Snapshot(Collections.unmodifiableList(peopleService.findOverdueLoans()), System.currentTimeMillis());
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    public static class Snapshot {
+        private final List<OverdueLoan> loans;
+        private final long builtAt;
+
+        Snapshot(List<OverdueLoan> loans, long builtAt) {
+            this.loans = loans;
+            this.builtAt = builtAt;
+        }
+
+        public List<OverdueLoan> page(int page, int perPage) {
+            long from = (long) page * perPage;
+            if (from >= loans.size())
+                return Collections.emptyList();
+            return loans.subList((int) from, (int) Math.min(from + perPage, loans.size()));
+        }
+
+        public int size() {
+            return loans.size();
+        }
+
+        public long getBuiltAt() {
+            return builtAt;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package ru.alishev.springcourse.util;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import ru.alishev.springcourse.repositories.PeopleRepository;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Множество нормализованных ФИО всех людей в памяти.
+ * <p>
+ * Если имени в множестве нет - такого человека точно нет, и проверка уникальности
+ * обходится без запроса к БД. Если есть - это лишь "возможно": имена сравниваются без учета
+ * регистра, а удаленные и переименованные люди из множества не убираются,
+ * поэтому ответ подтверждается запросом.
+ * Гонку параллельных созданий закрывает уникальный индекс на person.full_name.
+ */
+@Component
+public class PersonNameFilter {
+
+    private final PeopleRepository peopleRepository;
+    private final StartupTasks startupTasks;
+    private final Set<String> names = ConcurrentHashMap.newKeySet();
+    // пока имена не загружены, любое имя "возможно есть"
+    private volatile boolean loaded;
+
+    @Autowired
+    public PersonNameFilter(PeopleRepository peopleRepository, StartupTasks startupTasks) {
+        this.peopleRepository = peopleRepository;
+        this.startupTasks = startupTasks;
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void onStartup() {
+        startupTasks.run("person-name-filter", this::load);
+    }
+
+    public void load() {
+        peopleRepository.findAllFullNames().forEach(this::add);
+        loaded = true;
+    }
+
+    public void add(String fullName) {
+        if (fullName != null)
+            names.add(normalize(fullName));
+    }
+
+    public boolean mightContain(String fullName) {
+        return fullName != null && (!loaded || names.contains(normalize(fullName)));
+    }
+
+    private static String normalize(String fullName) {
+        return fullName.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -31,9 +31,13 @@ public class PersonValidator implements Validator {
         // fullName -на каком поле случилась ошибка
         // второй аргумент - код ошибки
         // сообщение об ошибке
-        if (peopleService.getPersonByFullName(person.getFullName()).isPresent()) {
-            errors.rejectValue("fullName", "",
-                    "Пользователь с таким ФИО уже существует");
+        if (peopleService.existsByFullName(person.getFullName())) {
+            rejectDuplicate(errors);
         }
     }
+
+    public static void rejectDuplicate(Errors errors) {
+        errors.rejectValue("fullName", "",
+                "Пользователь с таким ФИО уже существует");
+    }
 }
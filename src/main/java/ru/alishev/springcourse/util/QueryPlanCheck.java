@@ -0,0 +1,115 @@
+package ru.alishev.springcourse.util;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Проверка, что частые запросы идут по индексам: каждый выполняется через EXPLAIN
+ * с выключенным последовательным чтением (enable_seqscan = off). Если в плане все равно Seq Scan -
+ * подходящего индекса нет. На маленьких таблицах без этой настройки PostgreSQL выбрал бы Seq Scan и с индексом.
+ * Для keyset-запросов этого мало: индекс должен ограничивать диапазон (Index Cond)
+ * и отдавать строки уже в нужном порядке (без Sort), иначе стоимость растет с глубиной страницы;
+ * Bitmap Scan для проверки тоже выключен (enable_bitmapscan = off).
+ * Только для PostgreSQL
+ */
+public class QueryPlanCheck {
+    private static final Logger log = Logger.getLogger(QueryPlanCheck.class.getName());
+
+    // SQL запросов из BookRepository, PeopleRepository и LoanEventDAO
+    private static final Map<String, String> HOT_QUERIES = new LinkedHashMap<>();
+
+    static {
+        HOT_QUERIES.put("поиск книг по началу названия", "select * from book where title like 'abc%'");
+        HOT_QUERIES.put("человек по ФИО", "select * from person where full_name = 'Иванов Иван'");
+        HOT_QUERIES.put("первые люди по ФИО", "select * from person order by full_name limit 20");
+        HOT_QUERIES.put("подбор читателя по началу ФИО",
+                "select * from person where lower(full_name) like 'ив%' order by full_name limit 20");
+        HOT_QUERIES.put("книги человека", "select * from book where person_id = 1");
+        HOT_QUERIES.put("книги по году", "select * from book order by year, id limit 10");
+        HOT_QUERIES.put("книги по году после ключа",
+                "select * from book where year >= 2000 and (year > 2000 or id > 1) order by year, id limit 10");
+        HOT_QUERIES.put("просроченные книги", "select * from book where date_take_book < now()");
+        HOT_QUERIES.put("история выдачи книги",
+                "select * from loan_event where book_id = 1 and id < 100 order by id desc limit 50");
+        HOT_QUERIES.put("история выдачи человеку",
+                "select * from loan_event where person_id = 1 and id < 100 order by id desc limit 50");
+        HOT_QUERIES.put("возврат, закрывающий выдачу",
+                "select * from loan_event where book_id = 1 and event_type = 'RETURNED' and book_version >= 5 " +
+                        "order by book_version, id limit 1");
+    }
+
+    // условие, которое должно стоять в Index Cond плана keyset-запроса
+    private static final Map<String, String> INDEX_CONDITIONS = new LinkedHashMap<>();
+
+    static {
+        INDEX_CONDITIONS.put("книги по году после ключа", "Index Cond: (year >= 2000)");
+        INDEX_CONDITIONS.put("история выдачи книги", "Index Cond: ((book_id = 1) AND (id < 100))");
+        INDEX_CONDITIONS.put("история выдачи человеку", "Index Cond: ((person_id = 1) AND (id < 100))");
+    }
+
+    private final DataSource dataSource;
+
+    public QueryPlanCheck(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * @return названия запросов, в планах которых есть Seq Scan, а у keyset-запросов -
+     * нет ожидаемого Index Cond или есть Sort
+     */
+    public List<String> run() throws SQLException {
+        List<String> badPlans = new ArrayList<>();
+
+        try (Connection connection = dataSource.getConnection()) {
+            if (!"PostgreSQL".equals(connection.getMetaData().getDatabaseProductName()))
+                return badPlans;
+
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                // только до конца транзакции
+                statement.execute("set local enable_seqscan = off");
+                // иначе на пустой таблице Bitmap Scan с Sort дешевле упорядоченного Index Scan
+                statement.execute("set local enable_bitmapscan = off");
+
+                for (Map.Entry<String, String> query : HOT_QUERIES.entrySet()) {
+                    String plan = explain(statement, query.getValue());
+                    String indexCondition = INDEX_CONDITIONS.get(query.getKey());
+                    if (plan.contains("Seq Scan")) {
+                        badPlans.add(query.getKey());
+                        log.warning(String.format("Запрос «%s» не использует индекс:%n%s%n%s",
+                                query.getKey(), query.getValue(), plan));
+                    } else if (indexCondition != null && (!plan.contains(indexCondition) || plan.contains("Sort"))) {
+                        badPlans.add(query.getKey());
+                        log.warning(String.format("Запрос «%s» читает индекс не диапазоном %s в порядке индекса:%n%s%n%s",
+                                query.getKey(), indexCondition, query.getValue(), plan));
+                    }
+                }
+            } finally {
+                connection.rollback();
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+
+        if (badPlans.isEmpty())
+            log.info("Планы частых запросов: все " + HOT_QUERIES.size() + " идут по индексам");
+        return badPlans;
+    }
+
+    private static String explain(Statement statement, String sql) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (ResultSet rs = statement.executeQuery("explain " + sql)) {
+            while (rs.next())
+                plan.append(rs.getString(1)).append(System.lineSeparator());
+        }
+        return plan.toString();
+    }
+}
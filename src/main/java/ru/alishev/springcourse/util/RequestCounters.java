@@ -0,0 +1,91 @@
+package ru.alishev.springcourse.util;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Счетчики JDBC текущего запроса: сколько выполнено запросов к БД и прочитано строк.
+ * <p>
+ * Привязываются к потоку фильтром RequestMetricsFilter, увеличиваются InstrumentedDataSource.
+ * Одновременно с запросом работает только один поток (контейнера или RequestExecutor),
+ * поэтому поля - обычные long без синхронизации.
+ * <p>
+ * Поток контейнера переиспользует свой экземпляр от запроса к запросу (begin),
+ * новый создается, только если прежний ушел с асинхронным запросом (detach).
+ */
+public final class RequestCounters {
+
+    private static final ThreadLocal<RequestCounters> CURRENT = new ThreadLocal<>();
+    private static final ThreadLocal<RequestCounters> REUSABLE = ThreadLocal.withInitial(RequestCounters::new);
+
+    private long statements;
+    private long rows;
+
+    public static RequestCounters current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Обнуляет счетчики этого потока и привязывает их к начавшемуся запросу
+     */
+    public static RequestCounters begin() {
+        RequestCounters counters = REUSABLE.get();
+        counters.statements = 0;
+        counters.rows = 0;
+        bind(counters);
+        return counters;
+    }
+
+    /**
+     * Счетчики асинхронного запроса читаются, когда он завершится, - уже после того,
+     * как поток контейнера возьмется за следующий запрос. Этот поток получит новые.
+     */
+    public static void detach() {
+        REUSABLE.remove();
+    }
+
+    public static void bind(RequestCounters counters) {
+        CURRENT.set(counters);
+    }
+
+    public static void unbind() {
+        CURRENT.remove();
+    }
+
+    public static void statementExecuted() {
+        RequestCounters counters = CURRENT.get();
+        if (counters != null)
+            counters.statements++;
+    }
+
+    public static void rowFetched() {
+        RequestCounters counters = CURRENT.get();
+        if (counters != null)
+            counters.rows++;
+    }
+
+    /**
+     * Переносит счетчики текущего запроса в поток, который выполнит handler (см. RequestExecutor)
+     */
+    public static <T> Callable<T> propagate(Callable<T> handler) {
+        RequestCounters counters = CURRENT.get();
+        if (counters == null)
+            return handler;
+
+        return () -> {
+            bind(counters);
+            try {
+                return handler.call();
+            } finally {
+                unbind();
+            }
+        };
+    }
+
+    public long getStatements() {
+        return statements;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+}
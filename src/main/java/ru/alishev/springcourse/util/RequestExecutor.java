@@ -0,0 +1,217 @@
+package ru.alishev.springcourse.util;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Где выполняется блокирующая работа контроллеров (library.request_executor):
+ * <ul>
+ *     <li>container - в потоке контейнера сервлетов, как обычно (по умолчанию);</li>
+ *     <li>platform - в отдельном пуле платформенных потоков, поток контейнера освобождается;</li>
+ *     <li>virtual - в виртуальном потоке на каждый запрос (нужна JDK 21+).</li>
+ * </ul>
+ * В режимах platform и virtual контроллер возвращает Callable,
+ * и Spring MVC выполняет его через асинхронную обработку запроса на getTaskExecutor().
+ * <p>
+ * Дорогие обработчики выполняются в отсеках (Bulkhead) с ограничением одновременных запросов;
+ * в режиме platform у каждого отсека свой пул, чтобы они не занимали потоки общего.
+ */
+public class RequestExecutor implements DisposableBean {
+
+    public enum Mode {
+        CONTAINER, PLATFORM, VIRTUAL
+    }
+
+    private final Mode mode;
+    private final ExecutorService executorService;
+    private final AsyncTaskExecutor taskExecutor;
+    private final Map<Bulkhead.Kind, Bulkhead> bulkheads = new EnumMap<>(Bulkhead.Kind.class);
+    private final List<ExecutorService> bulkheadPools = new ArrayList<>();
+    private final int maxPageSize;
+
+    /**
+     * @param bulkheadLimits    наибольшее число одновременных запросов в каждом отсеке
+     * @param maxWaitMillis     сколько запрос ждет места в отсеке, прежде чем получить 503
+     * @param retryAfterSeconds значение Retry-After в ответе 503
+     * @param maxPageSize       наибольшее число строк на странице списка (см. pageSize)
+     */
+    public RequestExecutor(Mode mode, int platformThreads, Map<Bulkhead.Kind, Integer> bulkheadLimits,
+                           long maxWaitMillis, long retryAfterSeconds, int maxPageSize) {
+        this.mode = mode;
+        this.maxPageSize = maxPageSize;
+
+        switch (mode) {
+            case PLATFORM:
+                this.executorService = Executors.newFixedThreadPool(platformThreads, namedThreads("request-"));
+                break;
+            case VIRTUAL:
+                this.executorService = newVirtualThreadPerTaskExecutor();
+                break;
+            default:
+                this.executorService = null;
+        }
+        this.taskExecutor = executorService == null ? null : new TaskExecutorAdapter(executorService);
+
+        for (Map.Entry<Bulkhead.Kind, Integer> limit : bulkheadLimits.entrySet()) {
+            AsyncTaskExecutor bulkheadExecutor = taskExecutor;
+            if (mode == Mode.PLATFORM) {
+                ExecutorService pool = Executors.newFixedThreadPool(limit.getValue(),
+                        namedThreads("request-" + limit.getKey().name().toLowerCase() + "-"));
+                bulkheadPools.add(pool);
+                bulkheadExecutor = new TaskExecutorAdapter(pool);
+            }
+            bulkheads.put(limit.getKey(), new Bulkhead(limit.getKey(), limit.getValue(),
+                    maxWaitMillis, retryAfterSeconds, bulkheadExecutor));
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public boolean isAsync() {
+        return executorService != null;
+    }
+
+    public AsyncTaskExecutor getTaskExecutor() {
+        return taskExecutor;
+    }
+
+    public Collection<Bulkhead> getBulkheads() {
+        return bulkheads.values();
+    }
+
+    /**
+     * Размер страницы списка: запрошенный, но не больше library.max_page_size;
+     * без параметра - library.max_page_size, чтобы один запрос не выбирал всю таблицу
+     */
+    public int pageSize(Integer requested) {
+        if (requested == null)
+            return maxPageSize;
+        if (requested < 1)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Размер страницы должен быть больше 0");
+        return Math.min(requested, maxPageSize);
+    }
+
+    /**
+     * Обработчик запроса: в режиме container выполняется сразу, иначе возвращается
+     * как Callable. Метод контроллера поэтому объявляет возвращаемый тип Object -
+     * Spring MVC выбирает обработку по фактическому значению (имя представления или Callable).
+     * Счетчики JDBC запроса (RequestCounters) и сам запрос (RequestContextHolder) переносятся
+     * в поток, выполняющий Callable.
+     */
+    public Object submit(Callable<String> handler) throws Exception {
+        return isAsync() ? propagate(handler) : handler.call();
+    }
+
+    /**
+     * Как submit(handler), но в отсеке kind: место занимается сразу, в потоке контейнера (нет места - 503),
+     * и освобождается, когда обработчик закончил. Если запрос завершился по таймауту, пока обработчик
+     * еще выполняется, место остается занятым до его конца; если обработчик так и не начался
+     * (таймаут в очереди пула, ошибка), место освобождает завершение запроса
+     */
+    public Object submit(Bulkhead.Kind kind, Callable<String> handler) throws Exception {
+        Bulkhead bulkhead = bulkheads.get(kind);
+        Bulkhead.Permit permit = bulkhead.enter();
+        if (!isAsync()) {
+            try (permit) {
+                return handler.call();
+            }
+        }
+
+        // обработчик запускается, только если запрос еще не завершился, иначе место уже освобождено
+        AtomicBoolean started = new AtomicBoolean();
+        WebAsyncTask<String> task = new WebAsyncTask<>(null, bulkhead.getTaskExecutor(),
+                propagate(() -> {
+                    if (!started.compareAndSet(false, true))
+                        return null;
+                    try (permit) {
+                        return handler.call();
+                    }
+                }));
+        task.onCompletion(() -> {
+            if (started.compareAndSet(false, true))
+                permit.close();
+        });
+        return task;
+    }
+
+    /**
+     * Место в отсеке kind для обработчика, который выполняется в потоке контейнера
+     * (выгрузка и импорт пишут и читают тело запроса сами); освобождается в try-with-resources: try (permit) {...}
+     */
+    public Bulkhead.Permit enter(Bulkhead.Kind kind) throws InterruptedException {
+        return bulkheads.get(kind).enter();
+    }
+
+    /**
+     * Запрос нужен обработчику и в другом потоке: по нему ReadWriteRoutingDataSource решает,
+     * читать ли с основной БД (cookie read_primary_until), и после записи ставит эту cookie.
+     * Spring MVC сам привязывает запрос к потоку асинхронной обработки - тогда его привязка и остается;
+     * здесь запрос контейнера берется, только если поток его не знает.
+     */
+    private static <T> Callable<T> propagate(Callable<T> handler) {
+        Callable<T> counted = RequestCounters.propagate(handler);
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null)
+            return counted;
+
+        return () -> {
+            if (RequestContextHolder.getRequestAttributes() != null)
+                return counted.call();
+
+            RequestContextHolder.setRequestAttributes(attributes);
+            try {
+                return counted.call();
+            } finally {
+                RequestContextHolder.resetRequestAttributes();
+            }
+        };
+    }
+
+    @Override
+    public void destroy() {
+        if (executorService != null)
+            executorService.shutdown();
+        for (ExecutorService pool : bulkheadPools)
+            pool.shutdown();
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() вызывается через reflection,
+    // чтобы проект собирался и работал (в других режимах) на JDK ниже 21
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Режим library.request_executor=virtual требует JDK 21 или новее, текущая: "
+                    + System.getProperty("java.version"), e);
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
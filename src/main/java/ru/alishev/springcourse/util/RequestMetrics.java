@@ -0,0 +1,166 @@
+package ru.alishev.springcourse.util;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Метрики запросов по методам контроллеров: время ответа, число запросов к БД и прочитанных строк.
+ * Вывод в текстовом формате Prometheus вместе с метриками пула соединений и кэша Hibernate.
+ */
+@Component
+public class RequestMetrics {
+
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    // ключ - java.lang.reflect.Method обработчика: поиск без создания объектов на каждый запрос
+    private final Map<Object, HandlerStats> handlers = new ConcurrentHashMap<>();
+    private final HandlerStats unmatched = new HandlerStats("unmatched");
+
+    private final ConnectionPoolMetrics connectionPoolMetrics;
+    private final SecondLevelCache secondLevelCache;
+    private final SqlTraceLog sqlTraceLog;
+    private final LoanHistory loanHistory;
+    private final RequestExecutor requestExecutor;
+
+    @Autowired
+    public RequestMetrics(ConnectionPoolMetrics connectionPoolMetrics, SecondLevelCache secondLevelCache,
+                          SqlTraceLog sqlTraceLog, LoanHistory loanHistory, RequestExecutor requestExecutor) {
+        this.connectionPoolMetrics = connectionPoolMetrics;
+        this.secondLevelCache = secondLevelCache;
+        this.sqlTraceLog = sqlTraceLog;
+        this.loanHistory = loanHistory;
+        this.requestExecutor = requestExecutor;
+    }
+
+    /**
+     * @param handler значение атрибута HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE
+     */
+    public void record(Object handler, long elapsedNanos, RequestCounters counters) {
+        HandlerStats stats = statsFor(handler);
+        stats.latency.record(elapsedNanos / 1000);
+        stats.statements.add(counters.getStatements());
+        stats.rows.add(counters.getRows());
+    }
+
+    private HandlerStats statsFor(Object handler) {
+        if (!(handler instanceof HandlerMethod))
+            return unmatched;
+
+        HandlerMethod handlerMethod = (HandlerMethod) handler;
+        HandlerStats stats = handlers.get(handlerMethod.getMethod());
+        if (stats == null)
+            stats = handlers.computeIfAbsent(handlerMethod.getMethod(), method -> new HandlerStats(
+                    handlerMethod.getBeanType().getSimpleName() + "." + handlerMethod.getMethod().getName()));
+        return stats;
+    }
+
+    public String toPrometheusText() {
+        StringBuilder out = new StringBuilder(4096);
+
+        out.append("# HELP http_request_duration_seconds Время обработки запроса по методу контроллера\n");
+        out.append("# TYPE http_request_duration_seconds summary\n");
+        forEachHandler(stats -> {
+            for (double quantile : QUANTILES)
+                sample(out, "http_request_duration_seconds", stats.label, "quantile",
+                        Double.toString(quantile), stats.latency.quantileMicros(quantile) / 1e6);
+            sample(out, "http_request_duration_seconds_sum", stats.label, null, null,
+                    stats.latency.getSumMicros() / 1e6);
+            sample(out, "http_request_duration_seconds_count", stats.label, null, null,
+                    stats.latency.getCount());
+        });
+
+        out.append("# HELP http_request_jdbc_statements_total Выполненные запросы к БД\n");
+        out.append("# TYPE http_request_jdbc_statements_total counter\n");
+        forEachHandler(stats -> sample(out, "http_request_jdbc_statements_total", stats.label, null, null,
+                stats.statements.sum()));
+
+        out.append("# HELP http_request_jdbc_rows_total Прочитанные из БД строки\n");
+        out.append("# TYPE http_request_jdbc_rows_total counter\n");
+        forEachHandler(stats -> sample(out, "http_request_jdbc_rows_total", stats.label, null, null,
+                stats.rows.sum()));
+
+        gauge(out, "db_pool_active_connections", connectionPoolMetrics.getActiveConnections());
+        gauge(out, "db_pool_idle_connections", connectionPoolMetrics.getIdleConnections());
+        gauge(out, "db_pool_total_connections", connectionPoolMetrics.getTotalConnections());
+        gauge(out, "db_pool_pending_threads", connectionPoolMetrics.getPendingThreads());
+        counter(out, "db_pool_acquire_total", connectionPoolMetrics.getAcquireCount());
+        counter(out, "db_pool_timeout_total", connectionPoolMetrics.getTimeoutCount());
+        counter(out, "db_pool_wait_seconds_total", connectionPoolMetrics.getTotalWaitMillis() / 1e3);
+        counter(out, "sql_log_dropped_total", sqlTraceLog.getDroppedCount());
+        gauge(out, "loan_history_queue_size", loanHistory.getQueueSize());
+        counter(out, "loan_history_written_total", loanHistory.getWrittenCount());
+        counter(out, "loan_history_dropped_total", loanHistory.getDroppedCount());
+
+        out.append("# TYPE bulkhead_in_flight gauge\n");
+        for (Bulkhead bulkhead : requestExecutor.getBulkheads())
+            sample(out, "bulkhead_in_flight", null, "bulkhead", bulkhead.getKind().name().toLowerCase(),
+                    bulkhead.getInFlight());
+        out.append("# TYPE bulkhead_rejected_total counter\n");
+        for (Bulkhead bulkhead : requestExecutor.getBulkheads())
+            sample(out, "bulkhead_rejected_total", null, "bulkhead", bulkhead.getKind().name().toLowerCase(),
+                    bulkhead.getRejectedCount());
+
+        Map<String, long[]> regions = secondLevelCache.getRegionStatistics();
+        String[] names = {"hibernate_cache_hit_total", "hibernate_cache_miss_total", "hibernate_cache_put_total"};
+        for (int i = 0; i < names.length; i++) {
+            out.append("# TYPE ").append(names[i]).append(" counter\n");
+            for (Map.Entry<String, long[]> region : regions.entrySet())
+                sample(out, names[i], null, "region", region.getKey(), region.getValue()[i]);
+        }
+
+        return out.toString();
+    }
+
+    private void forEachHandler(Consumer<HandlerStats> action) {
+        handlers.values().forEach(action);
+        if (unmatched.latency.getCount() > 0)
+            action.accept(unmatched);
+    }
+
+    private static void gauge(StringBuilder out, String name, double value) {
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        sample(out, name, null, null, null, value);
+    }
+
+    private static void counter(StringBuilder out, String name, double value) {
+        out.append("# TYPE ").append(name).append(" counter\n");
+        sample(out, name, null, null, null, value);
+    }
+
+    private static void sample(StringBuilder out, String name, String handler,
+                               String label, String labelValue, double value) {
+        out.append(name);
+        if (handler != null || label != null) {
+            out.append('{');
+            if (handler != null)
+                out.append("handler=\"").append(handler).append('"');
+            if (label != null) {
+                if (handler != null)
+                    out.append(',');
+                out.append(label).append("=\"").append(labelValue).append('"');
+            }
+            out.append('}');
+        }
+        out.append(' ').append(value == Math.rint(value) && Math.abs(value) < 1e15
+                ? Long.toString((long) value)
+                : String.format(Locale.ROOT, "%.6f", value)).append('\n');
+    }
+
+    private static class HandlerStats {
+        final String label;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder statements = new LongAdder();
+        final LongAdder rows = new LongAdder();
+
+        HandlerStats(String label) {
+            this.label = label;
+        }
+    }
+}
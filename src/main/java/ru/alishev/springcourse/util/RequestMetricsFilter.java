@@ -0,0 +1,74 @@
+package ru.alishev.springcourse.util;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Замеряет каждый запрос для RequestMetrics.
+ * Регистрируется в MySpringMvcDispatcherServletInitializer через DelegatingFilterProxy.
+ * <p>
+ * Асинхронный запрос (library.request_executor = platform/virtual) записывается,
+ * когда он завершится, а не когда освободится поток контейнера.
+ */
+@Component("requestMetricsFilter")
+public class RequestMetricsFilter extends OncePerRequestFilter {
+
+    private final RequestMetrics requestMetrics;
+
+    @Autowired
+    public RequestMetricsFilter(RequestMetrics requestMetrics) {
+        this.requestMetrics = requestMetrics;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        long start = System.nanoTime();
+        RequestCounters counters = RequestCounters.begin();
+
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            RequestCounters.unbind();
+
+            if (request.isAsyncStarted()) {
+                RequestCounters.detach();
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        record(request, start, counters);
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            } else {
+                record(request, start, counters);
+            }
+        }
+    }
+
+    private void record(HttpServletRequest request, long start, RequestCounters counters) {
+        requestMetrics.record(request.getAttribute(HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE),
+                System.nanoTime() - start, counters);
+    }
+}
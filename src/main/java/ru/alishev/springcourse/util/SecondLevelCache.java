@@ -0,0 +1,113 @@
+package ru.alishev.springcourse.util;
+
+import org.hibernate.Cache;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.alishev.springcourse.models.Book;
+import ru.alishev.springcourse.models.Person;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Инвалидация и статистика второго уровня кэша Hibernate.
+ * <p>
+ * Person.books - обратная сторона связи (mappedBy), поэтому Hibernate не сбрасывает
+ * ее кэш при изменении Book.owner: это делает BookService.delete. Выдачу и возврат BookDAO пишет
+ * в обход Hibernate - после них кэши книг сбрасывает evictBooksAfterCommit.
+ */
+@Component
+public class SecondLevelCache {
+
+    public static final String PERSON_BOOKS_REGION = Person.class.getName() + ".books";
+
+    private static final String[] REGIONS = {
+            Person.class.getName(),
+            Book.class.getName(),
+            PERSON_BOOKS_REGION,
+            "default-query-results-region"
+    };
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    public SecondLevelCache(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    // не в конструкторе: при library.fast_start фабрика еще строится в фоне
+    private SessionFactory sessionFactory() {
+        return entityManagerFactory.unwrap(SessionFactory.class);
+    }
+
+    public boolean isEnabled() {
+        return sessionFactory().getSessionFactoryOptions().isSecondLevelCacheEnabled();
+    }
+
+    public void evictBooksOf(Person owner) {
+        if (owner != null && isEnabled())
+            sessionFactory().getCache().evictCollectionData(PERSON_BOOKS_REGION, owner.getPersonId());
+    }
+
+    // при удалении человека его книги освобождаются в обход Hibernate (BookDAO.releaseAllOf)
+    public void evictAllBooks() {
+        if (isEnabled())
+            sessionFactory().getCache().evictEntityData(Book.class);
+    }
+
+    /**
+     * Книги изменены UPDATE в обход Hibernate (см. BookDAO.assign/release): после коммита сбрасываются
+     * кэш книг, коллекций Person.books и кэш запросов - то же, что Hibernate делает после JPQL UPDATE
+     */
+    public void evictBooksAfterCommit() {
+        if (!isEnabled())
+            return;
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evictBooks();
+                }
+            });
+        } else {
+            evictBooks();
+        }
+    }
+
+    private void evictBooks() {
+        Cache cache = sessionFactory().getCache();
+        cache.evictEntityData(Book.class);
+        cache.evictCollectionData(PERSON_BOOKS_REGION);
+        cache.evictQueryRegions();
+    }
+
+    public Statistics getStatistics() {
+        return sessionFactory().getStatistics();
+    }
+
+    /**
+     * hit/miss/put по регионам (при hibernate.generate_statistics=true)
+     */
+    public Map<String, long[]> getRegionStatistics() {
+        Map<String, long[]> result = new LinkedHashMap<>();
+        if (!isEnabled())
+            return result;
+
+        for (String region : REGIONS) {
+            CacheRegionStatistics statistics = region.startsWith("default-")
+                    ? getStatistics().getQueryRegionStatistics(region)
+                    : getStatistics().getDomainDataRegionStatistics(region);
+            if (statistics != null)
+                result.put(region, new long[]{statistics.getHitCount(), statistics.getMissCount(),
+                        statistics.getPutCount()});
+        }
+        return result;
+    }
+}
@@ -0,0 +1,129 @@
+package ru.alishev.springcourse.util;
+
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Лог SQL-запросов вместо hibernate.show_sql: текст, число параметров, время выполнения и число строк.
+ * <p>
+ * Пишется доля запросов library.sql_log.sample_rate и все запросы дольше
+ * library.sql_log.slow_threshold_ms. Записи уходят в ограниченную очередь,
+ * которую разбирает отдельный поток, поэтому поток запроса не ждет вывода;
+ * при переполнении очереди записи отбрасываются и считаются (getDroppedCount).
+ * <p>
+ * Пишется через java.util.logging: slf4j-api приходит транзитивно от Ehcache без реализации,
+ * и commons-logging Spring отдал бы записи в NOP-логгер.
+ */
+public class SqlTraceLog implements DisposableBean {
+
+    private static final Logger log = Logger.getLogger(SqlTraceLog.class.getName());
+
+    // как часто поток записи проверяет остановку, и сколько destroy ждет, пока очередь допишется
+    private static final long POLL_INTERVAL_MILLIS = 100;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 5000;
+
+    private final double sampleRate;
+    private final long slowThresholdNanos;
+    private final BlockingQueue<Entry> queue;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+
+    private volatile boolean closed;
+
+    /**
+     * @param slowThresholdMillis отрицательное значение выключает лог медленных запросов
+     */
+    public SqlTraceLog(double sampleRate, long slowThresholdMillis, int capacity) {
+        this.sampleRate = sampleRate;
+        this.slowThresholdNanos = slowThresholdMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+
+        this.writer = new Thread(this::drain, "sql-trace-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public boolean isEnabled() {
+        return sampleRate > 0 || slowThresholdNanos >= 0;
+    }
+
+    /**
+     * @param rows прочитанные строки для SELECT, измененные - для INSERT/UPDATE/DELETE, -1 если неизвестно
+     */
+    public void record(String sql, int binds, long elapsedNanos, long rows) {
+        boolean slow = slowThresholdNanos >= 0 && elapsedNanos >= slowThresholdNanos;
+        if (!slow && (sampleRate <= 0 || ThreadLocalRandom.current().nextDouble() >= sampleRate))
+            return;
+
+        if (!queue.offer(new Entry(sql, binds, elapsedNanos, rows, slow)))
+            dropped.increment();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    private void drain() {
+        List<Entry> batch = new ArrayList<>();
+        while (!closed) {
+            try {
+                Entry first = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+            } catch (InterruptedException e) {
+                // остановка - через closed, очередь дописывается
+                continue;
+            }
+            queue.drainTo(batch);
+            write(batch);
+        }
+        // записи, попавшие в очередь до остановки
+        queue.drainTo(batch);
+        write(batch);
+    }
+
+    private void write(List<Entry> batch) {
+        for (Entry entry : batch) {
+            String message = String.format("%s%.3f ms, %d binds, %d rows: %s",
+                    entry.slow ? "медленный запрос " : "", entry.elapsedNanos / 1e6, entry.binds, entry.rows, entry.sql);
+            if (entry.slow)
+                log.warning(message);
+            else
+                log.info(message);
+        }
+        batch.clear();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        closed = true;
+        writer.join(SHUTDOWN_TIMEOUT_MILLIS);
+        if (writer.isAlive())
+            log.warning("Лог SQL: при остановке не записано записей: " + queue.size());
+    }
+
+    private static class Entry {
+        final String sql;
+        final int binds;
+        final long elapsedNanos;
+        final long rows;
+        final boolean slow;
+
+        Entry(String sql, int binds, long elapsedNanos, long rows, boolean slow) {
+            this.sql = sql;
+            this.binds = binds;
+            this.elapsedNanos = elapsedNanos;
+            this.rows = rows;
+            this.slow = slow;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package ru.alishev.springcourse.util;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.core.metrics.ApplicationStartup;
+import org.springframework.core.metrics.StartupStep;
+import org.springframework.stereotype.Component;
+import ru.alishev.springcourse.config.SpringConfig;
+
+/**
+ * Загрузка данных при запуске (индекс поиска, фильтр имен).
+ * <p>
+ * Обычно выполняется сразу, при library.fast_start=true - в фоновом потоке,
+ * чтобы приложение начало принимать запросы раньше; пока загрузка не закончена,
+ * потребители обходятся запросами к БД. Время задач попадает в отчет о запуске (StartupReport).
+ */
+@Component
+public class StartupTasks {
+
+    private final boolean background;
+    private final ApplicationStartup applicationStartup;
+
+    @Autowired
+    public StartupTasks(Environment environment, ApplicationStartup applicationStartup) {
+        this.background = environment.getProperty(SpringConfig.FAST_START, Boolean.class, false);
+        this.applicationStartup = applicationStartup;
+    }
+
+    public void run(String name, Runnable task) {
+        Runnable timed = () -> {
+            StartupStep step = applicationStartup.start("library.startup.task").tag("task", name);
+            try {
+                task.run();
+            } finally {
+                step.end();
+            }
+        };
+
+        if (background) {
+            Thread thread = new Thread(timed, "startup-" + name);
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            timed.run();
+        }
+    }
+}
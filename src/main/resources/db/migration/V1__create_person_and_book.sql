@@ -0,0 +1,23 @@
+-- Таблицы могли быть созданы вручную до появления миграций - поэтому IF NOT EXISTS
+
+CREATE TABLE IF NOT EXISTS person
+(
+    person_id     int GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    full_name     varchar(100) NOT NULL,
+    year_of_birth int          NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS book
+(
+    id             int GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    title          varchar(100) NOT NULL,
+    author         varchar(100) NOT NULL,
+    year           int          NOT NULL,
+    -- книги удаленного человека освобождаются
+    person_id      int          REFERENCES person (person_id) ON DELETE SET NULL,
+    date_take_book timestamp,
+    -- оптимистическая блокировка (Book.version)
+    version        integer      NOT NULL DEFAULT 0
+);
+
+ALTER TABLE book ADD COLUMN IF NOT EXISTS version integer NOT NULL DEFAULT 0;
@@ -0,0 +1,17 @@
+-- Индексы под частые запросы (проверяются при запуске через EXPLAIN, см. QueryPlanCheck)
+
+-- поиск по началу названия (title LIKE 'abc%') при любой collation базы
+CREATE INDEX IF NOT EXISTS book_title_prefix_idx ON book (title text_pattern_ops);
+
+-- уникальность ФИО, поиск по ФИО и список людей, отсортированный по ФИО;
+-- имя совпадает с именем ограничения UNIQUE, которое PostgreSQL создает для full_name
+CREATE UNIQUE INDEX IF NOT EXISTS person_full_name_key ON person (full_name);
+
+-- книги человека и join book -> person
+CREATE INDEX IF NOT EXISTS book_person_id_idx ON book (person_id);
+
+-- сортировка и keyset-пагинация по (year, id)
+CREATE INDEX IF NOT EXISTS book_year_id_idx ON book (year, id);
+
+-- просроченные книги
+CREATE INDEX IF NOT EXISTS book_date_take_book_idx ON book (date_take_book);
@@ -0,0 +1,18 @@
+-- История выдачи книг: только добавление строк, пишется в фоне пачками (см. LoanHistory).
+-- Без внешних ключей: история переживает удаление книги или человека, а вставка не проверяет ссылки
+
+CREATE TABLE IF NOT EXISTS loan_event
+(
+    id          bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    book_id     int         NOT NULL,
+    -- кто взял книгу; у RETURNED пусто - это владелец из предыдущего TAKEN этой книги
+    person_id   int,
+    event_type  varchar(8)  NOT NULL,
+    occurred_at timestamp   NOT NULL
+);
+
+-- история книги и поиск возврата, следующего за выдачей
+CREATE INDEX IF NOT EXISTS loan_event_book_id_idx ON loan_event (book_id, id);
+
+-- история человека
+CREATE INDEX IF NOT EXISTS loan_event_person_id_idx ON loan_event (person_id, id);
@@ -0,0 +1,3 @@
+-- Подбор читателя по началу ФИО без учета регистра (lower(full_name) LIKE 'ив%', см. PeopleService.lookup)
+-- при любой collation базы
+CREATE INDEX IF NOT EXISTS person_full_name_lower_prefix_idx ON person (lower(full_name) text_pattern_ops);
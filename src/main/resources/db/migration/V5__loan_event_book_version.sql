@@ -0,0 +1,9 @@
+-- Версия книги (book.version) сразу после выдачи или возврата. Условный UPDATE выдачи и возврата
+-- увеличивает ее, поэтому возврат, закрывающий выдачу, - первый RETURNED той же книги с версией
+-- не меньше, чем у TAKEN (равной - при удалении человека: книги освобождает внешний ключ, версия не меняется).
+-- Порядок id событий этого не гарантирует: они пишутся в фоне, и в очередь могут попасть не в порядке коммитов.
+-- У событий до этой миграции версии нет (NULL) - они сопоставляются по id, как раньше
+ALTER TABLE loan_event ADD COLUMN IF NOT EXISTS book_version int;
+
+-- поиск возврата, закрывающего выдачу
+CREATE INDEX IF NOT EXISTS loan_event_book_version_idx ON loan_event (book_id, book_version);
@@ -5,5 +5,7 @@
 <a href="/people">Readers</a>
 <br/>
 <a href="/books">Books</a>
+<br/>
+<a href="/overdue">Overdue</a>
 </body>
 </html>
@@ -0,0 +1,36 @@
+// Подсказки при вводе ФИО читателя: список #person заполняется из /api/people/lookup
+// (адрес с контекстом приложения - в data-lookup-url поля #reader, его строит шаблон).
+// Без JavaScript работает форма «Найти» (параметр reader), список тот же
+(function () {
+    var input = document.getElementById('reader');
+    var select = document.getElementById('person');
+    if (!input || !select || !input.dataset.lookupUrl)
+        return;
+
+    var timer = null;
+    var last = input.value;
+
+    input.addEventListener('input', function () {
+        clearTimeout(timer);
+        timer = setTimeout(function () {
+            var prefix = input.value.trim();
+            if (prefix === last)
+                return;
+            last = prefix;
+
+            fetch(input.dataset.lookupUrl + '?q=' + encodeURIComponent(prefix))
+                .then(function (response) {
+                    return response.json();
+                })
+                .then(function (body) {
+                    // ответ на устаревший ввод
+                    if (prefix !== last)
+                        return;
+                    select.innerHTML = '';
+                    body.items.forEach(function (person) {
+                        select.add(new Option(person.fullName, person.personId));
+                    });
+                });
+        }, 200);
+    });
+})();
@@ -0,0 +1,185 @@
+package ru.alishev.springcourse.config;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.ServletWebRequest;
+import ru.alishev.springcourse.util.ChangeVersions;
+import ru.alishev.springcourse.util.RequestExecutor;
+
+import javax.servlet.http.Cookie;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Маршрутизация чтения и записи на двух БД H2: в основной и в реплике таблица db с разными строками,
+ * поэтому по прочитанной строке видно, куда ушел запрос
+ */
+public class ReadWriteRoutingDataSourceTest {
+    private static final long READ_AFTER_WRITE_MILLIS = 60000;
+
+    private HikariDataSource primary;
+    private HikariDataSource replica;
+    private ReadWriteRoutingDataSource routing;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate readOnly;
+    private TransactionTemplate readWrite;
+
+    @Before
+    public void setUp() throws Exception {
+        primary = database("primary");
+        replica = database("replica");
+        routing = new ReadWriteRoutingDataSource(primary, Collections.singletonList(replica), 50,
+                READ_AFTER_WRITE_MILLIS);
+        // как в SpringConfig: выбор БД откладывается до первого запроса
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(routing);
+
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        readWrite = new TransactionTemplate(transactionManager);
+        readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+
+        waitForHealthyReplica();
+    }
+
+    @After
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+        routing.destroy();
+        primary.close();
+    }
+
+    @Test
+    public void readOnlyTransactionsGoToReplica() {
+        assertEquals("replica", readOnly.execute(status -> whereAmI()));
+        assertEquals("primary", readWrite.execute(status -> whereAmI()));
+    }
+
+    @Test
+    public void readsFallBackToPrimaryWhenReplicaIsDown() {
+        replica.close();
+
+        assertEquals("primary", readOnly.execute(status -> whereAmI()));
+        assertEquals(0, routing.getHealthyReplicas());
+    }
+
+    @Test
+    public void writeSetsPinCookieAndLaterReadsGoToPrimary() {
+        MockHttpServletResponse response = bindRequest(new MockHttpServletRequest());
+        readWrite.execute(status -> jdbcTemplate.update("UPDATE db SET name = name"));
+
+        // тот же запрос (redirect еще не был) - по атрибуту, следующий - по cookie
+        assertEquals("primary", readOnly.execute(status -> whereAmI()));
+        Cookie pin = response.getCookie(ReadWriteRoutingDataSource.PIN_COOKIE);
+        assertNotNull(pin);
+
+        MockHttpServletRequest next = new MockHttpServletRequest();
+        next.setCookies(pin);
+        bindRequest(next);
+        assertEquals("primary", readOnly.execute(status -> whereAmI()));
+    }
+
+    @Test
+    public void expiredPinCookieReadsFromReplica() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie(ReadWriteRoutingDataSource.PIN_COOKIE,
+                Long.toString(System.currentTimeMillis() - 1)));
+        bindRequest(request);
+
+        assertEquals("replica", readOnly.execute(status -> whereAmI()));
+    }
+
+    @Test
+    public void pinIsCarriedIntoExecutorThread() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie(ReadWriteRoutingDataSource.PIN_COOKIE,
+                Long.toString(System.currentTimeMillis() + READ_AFTER_WRITE_MILLIS)));
+        bindRequest(request);
+
+        RequestExecutor requestExecutor = new RequestExecutor(RequestExecutor.Mode.PLATFORM, 1,
+                Collections.emptyMap(), 0, 1, 100);
+        ExecutorService thread = Executors.newSingleThreadExecutor();
+        try {
+            @SuppressWarnings("unchecked")
+            Callable<String> handler = (Callable<String>) requestExecutor.submit(
+                    () -> readOnly.execute(status -> whereAmI()));
+            // в потоке пула запрос к потоку не привязан - его переносит RequestExecutor
+            assertEquals("primary", thread.submit(handler).get());
+        } finally {
+            thread.shutdown();
+            requestExecutor.destroy();
+        }
+    }
+
+    @Test
+    public void pageWithFreshETagIsReadFromPrimary() {
+        ChangeVersions changeVersions = new ChangeVersions();
+        changeVersions.changed(ChangeVersions.Aggregate.BOOKS);
+
+        // у клиента нет cookie: он ничего не записывал, но ETag страницы уже отражает изменение
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/books");
+        MockHttpServletResponse response = bindRequest(request);
+        changeVersions.checkNotModified(new ServletWebRequest(request, response), ChangeVersions.Aggregate.BOOKS);
+
+        assertEquals("primary", readOnly.execute(status -> whereAmI()));
+    }
+
+    @Test
+    public void pageWithOldETagIsReadFromReplica() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/books");
+        bindRequest(request);
+        request.setAttribute(ChangeVersions.MODIFIED_ATTRIBUTE,
+                System.currentTimeMillis() - READ_AFTER_WRITE_MILLIS - 1);
+
+        assertEquals("replica", readOnly.execute(status -> whereAmI()));
+    }
+
+    private String whereAmI() {
+        return jdbcTemplate.queryForObject("SELECT name FROM db", String.class);
+    }
+
+    private static MockHttpServletResponse bindRequest(MockHttpServletRequest request) {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request, response));
+        return response;
+    }
+
+    private static HikariDataSource database(String name) {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        config.setUsername("sa");
+        config.setPassword("");
+        config.setPoolName(name);
+        config.setMaximumPoolSize(2);
+        HikariDataSource dataSource = new HikariDataSource(config);
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("DROP TABLE IF EXISTS db");
+        jdbcTemplate.execute("CREATE TABLE db(name VARCHAR(20))");
+        jdbcTemplate.update("INSERT INTO db VALUES (?)", name);
+        return dataSource;
+    }
+
+    // первая проверка реплик идет в фоне сразу после создания
+    private void waitForHealthyReplica() throws InterruptedException {
+        for (int i = 0; i < 100 && routing.getHealthyReplicas() == 0; i++)
+            Thread.sleep(10);
+        assertEquals(1, routing.getHealthyReplicas());
+    }
+}
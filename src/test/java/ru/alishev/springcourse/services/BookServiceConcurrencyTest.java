@@ -0,0 +1,120 @@
+package ru.alishev.springcourse.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import ru.alishev.springcourse.config.SpringConfig;
+import ru.alishev.springcourse.models.Book;
+import ru.alishev.springcourse.models.Person;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Выдача и возврат - один условный UPDATE: из одновременных выдач (возвратов) одной книги
+ * успешна ровно одна, и версия книги растет ровно на единицу
+ */
+@RunWith(SpringRunner.class)
+@WebAppConfiguration
+@ContextConfiguration(classes = SpringConfig.class)
+public class BookServiceConcurrencyTest {
+    private static final int THREADS = 16;
+
+    @Autowired
+    private BookService bookService;
+
+    @Autowired
+    private PeopleService peopleService;
+
+    private final List<Person> readers = new ArrayList<>();
+    private ExecutorService executor;
+    private Book book;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(THREADS);
+
+        book = new Book("Одна книга на всех", "Автор Книги", 2000);
+        bookService.save(book);
+
+        for (int i = 0; i < THREADS; i++) {
+            Person reader = new Person("Читатель" + i + " Тест Тестович", 1990);
+            peopleService.save(reader);
+            readers.add(reader);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        // книга первой: в схеме hbm2ddl у внешнего ключа book.person_id нет ON DELETE SET NULL
+        bookService.delete(book.getId());
+        for (Person reader : readers)
+            peopleService.delete(reader.getPersonId());
+    }
+
+    @Test
+    public void onlyOneConcurrentAssignSucceeds() throws Exception {
+        int version = bookService.showWithOwner(book.getId()).getVersion();
+
+        List<Callable<Boolean>> assigns = new ArrayList<>();
+        for (Person reader : readers)
+            assigns.add(() -> bookService.assign(book.getId(), reader));
+        List<Boolean> results = runTogether(assigns);
+
+        assertEquals(1, count(results));
+        Book assigned = bookService.showWithOwner(book.getId());
+        assertEquals(version + 1, assigned.getVersion());
+        assertEquals(readers.get(results.indexOf(true)).getPersonId(), assigned.getOwner().getPersonId());
+    }
+
+    @Test
+    public void onlyOneConcurrentReleaseSucceeds() throws Exception {
+        bookService.assign(book.getId(), readers.get(0));
+        int version = bookService.showWithOwner(book.getId()).getVersion();
+
+        List<Callable<Boolean>> releases = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++)
+            releases.add(() -> bookService.release(book.getId()));
+        List<Boolean> results = runTogether(releases);
+
+        assertEquals(1, count(results));
+        Book released = bookService.showWithOwner(book.getId());
+        assertEquals(version + 1, released.getVersion());
+        assertNull(released.getOwner());
+    }
+
+    // все задачи стартуют одновременно, каждая в своем потоке
+    private List<Boolean> runTogether(List<Callable<Boolean>> tasks) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (Callable<Boolean> task : tasks)
+            futures.add(executor.submit(() -> {
+                start.await();
+                return task.call();
+            }));
+        start.countDown();
+
+        List<Boolean> results = new ArrayList<>();
+        for (Future<Boolean> future : futures)
+            results.add(future.get());
+        return results;
+    }
+
+    private static long count(List<Boolean> results) {
+        return results.stream().filter(Boolean::booleanValue).count();
+    }
+}